@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/*
+    Labels two weeks of days over and over, as scrolling the forecast list does, with the Time
+    and SimpleDateFormat code Utility used to have and with FriendlyDateFormatter.  Allocations
+    and time taken are logged; the test only fails if the labels differ.
+ */
+public class TestDateFormattingBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDateFormattingBenchmark.class.getSimpleName();
+
+    private static final int ROUNDS = 200;
+    private static final int DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Utility.getFriendlyDayString as it was, allocating a Time and a SimpleDateFormat or two
+    // on every call
+    static String legacyFriendlyDayString(Context context, long dateInMillis, boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+            return context.getString(R.string.format_full_friendly_date,
+                    context.getString(R.string.today), monthDayFormat.format(dateInMillis));
+        } else if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return context.getString(R.string.tomorrow);
+        } else if (julianDay < currentJulianDay + 7) {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    private long[] createDates() {
+        long[] dates = new long[DAYS];
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < DAYS; i++) {
+            // Half a day in, so daylight saving changes don't move a date to the next day
+            dates[i] = WeatherContract.normalizeDate(today + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+        }
+        return dates;
+    }
+
+    public void testLabelsMatchLegacyCode() {
+        long[] dates = createDates();
+        TimeZone timeZone = TimeZone.getDefault();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < dates.length; i++) {
+            // The old code used today's offset for every day, which mislabels days across a
+            // daylight saving change; only compare the others
+            if (timeZone.getOffset(dates[i]) != timeZone.getOffset(now)) {
+                continue;
+            }
+            for (boolean longToday : new boolean[]{true, false}) {
+                assertEquals("Error: Day " + i + " is labelled differently",
+                        legacyFriendlyDayString(mContext, dates[i], longToday),
+                        Utility.getFriendlyDayString(mContext, dates[i], longToday));
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testAllocations() {
+        long[] dates = createDates();
+        // Let both sides load their classes and resources, and the new one fill its labels
+        for (long date : dates) {
+            legacyFriendlyDayString(mContext, date, true);
+            Utility.getFriendlyDayString(mContext, date, true);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < dates.length; i++) {
+                legacyFriendlyDayString(mContext, dates[i], i == 0);
+            }
+        }
+        long legacyNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int legacyAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < dates.length; i++) {
+                Utility.getFriendlyDayString(mContext, dates[i], i == 0);
+            }
+        }
+        long cachedNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int cachedAllocations = Debug.getThreadAllocCount();
+
+        int calls = ROUNDS * DAYS;
+        Log.i(LOG_TAG, calls + " labels: " +
+                legacyAllocations + " allocations, " + legacyNanos / calls + " ns each with Time and SimpleDateFormat, " +
+                cachedAllocations + " allocations, " + cachedNanos / calls + " ns each with FriendlyDateFormatter");
+
+        // A runtime that doesn't count allocations reports none for either
+        if (legacyAllocations > 0) {
+            // Half leaves room for whatever else the runtime allocates on this thread meanwhile
+            assertTrue("Error: FriendlyDateFormatter made " + cachedAllocations +
+                            " allocations, not clearly fewer than the " + legacyAllocations +
+                            " of Time and SimpleDateFormat",
+                    cachedAllocations < legacyAllocations / 2);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastListDiff extends AndroidTestCase {
+
+    /*
+        Applies the changes to a copy of the old dates, as RecyclerView would, and remembers
+        which positions it was told had changed.
+     */
+    static class ApplyingCallback implements ForecastListDiff.Callback {
+        final List<Long> mDates = new ArrayList<Long>();
+        final List<Long> mChangedDates = new ArrayList<Long>();
+        final ForecastListDiff.Snapshot mNewRows;
+        int mEventCount;
+
+        ApplyingCallback(ForecastListDiff.Snapshot oldRows, ForecastListDiff.Snapshot newRows) {
+            for (int i = 0; i < oldRows.size(); i++) {
+                mDates.add(oldRows.getDate(i));
+            }
+            mNewRows = newRows;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mEventCount++;
+            // Whatever is inserted at a position ends up there in the new list only if
+            // everything before it is already right, which the callback order guarantees
+            for (int i = 0; i < count; i++) {
+                mDates.add(position + i, mNewRows.getDate(position + i));
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mEventCount++;
+            for (int i = 0; i < count; i++) {
+                mDates.remove(position);
+            }
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            mEventCount++;
+            for (int i = 0; i < count; i++) {
+                mChangedDates.add(mDates.get(position + i));
+            }
+        }
+    }
+
+    // Rows as ForecastFragment would load them, with only the date and weather varying
+    ForecastListDiff.Snapshot createSnapshot(long[] dates, int[] weatherIds) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "date", "short_desc", "max",
+                "min", "location_setting", "weather_id", "coord_lat", "coord_long"});
+        for (int i = 0; i < dates.length; i++) {
+            Object[] row = new Object[cursor.getColumnCount()];
+            row[ForecastFragment.COL_WEATHER_ID] = i;
+            row[ForecastFragment.COL_WEATHER_DATE] = dates[i];
+            row[ForecastFragment.COL_WEATHER_DESC] = "";
+            row[ForecastFragment.COL_WEATHER_MAX_TEMP] = 20.0;
+            row[ForecastFragment.COL_WEATHER_MIN_TEMP] = 10.0;
+            row[ForecastFragment.COL_LOCATION_SETTING] = "99705";
+            row[ForecastFragment.COL_WEATHER_CONDITION_ID] = weatherIds[i];
+            row[ForecastFragment.COL_COORD_LAT] = 64.7488;
+            row[ForecastFragment.COL_COORD_LONG] = -147.353;
+            cursor.addRow(row);
+        }
+        ForecastListDiff.Snapshot snapshot =
+                new ForecastListDiff.Snapshot(ForecastRow.fromCursor(mContext, cursor));
+        cursor.close();
+        return snapshot;
+    }
+
+    public void testUnchangedListDispatchesNothing() {
+        ForecastListDiff.Snapshot rows = createSnapshot(new long[]{1, 2, 3}, new int[]{800, 800, 500});
+        ApplyingCallback callback = new ApplyingCallback(rows, rows);
+        assertTrue(ForecastListDiff.dispatch(rows, rows, callback));
+        assertEquals(0, callback.mEventCount);
+    }
+
+    // A new day: the first one drops off, a new last one arrives and a day in between changes
+    public void testDayRollsForward() {
+        ForecastListDiff.Snapshot oldRows =
+                createSnapshot(new long[]{1, 2, 3, 4}, new int[]{800, 800, 500, 500});
+        ForecastListDiff.Snapshot newRows =
+                createSnapshot(new long[]{2, 3, 4, 5}, new int[]{800, 800, 500, 600});
+        ApplyingCallback callback = new ApplyingCallback(oldRows, newRows);
+        assertTrue(ForecastListDiff.dispatch(oldRows, newRows, callback));
+
+        assertEquals(3, callback.mEventCount);
+        assertEquals(4, callback.mDates.size());
+        for (int i = 0; i < newRows.size(); i++) {
+            assertEquals(newRows.getDate(i), (long) callback.mDates.get(i));
+        }
+        assertEquals(1, callback.mChangedDates.size());
+        assertEquals(3L, (long) callback.mChangedDates.get(0));
+    }
+
+    public void testRunsAreCoalesced() {
+        ForecastListDiff.Snapshot oldRows =
+                createSnapshot(new long[]{1, 2, 3, 7}, new int[]{800, 800, 800, 800});
+        ForecastListDiff.Snapshot newRows =
+                createSnapshot(new long[]{4, 5, 6, 7}, new int[]{800, 800, 800, 800});
+        ApplyingCallback callback = new ApplyingCallback(oldRows, newRows);
+        assertTrue(ForecastListDiff.dispatch(oldRows, newRows, callback));
+
+        // One removal of three days and one insertion of three
+        assertEquals(2, callback.mEventCount);
+        for (int i = 0; i < newRows.size(); i++) {
+            assertEquals(newRows.getDate(i), (long) callback.mDates.get(i));
+        }
+    }
+
+    public void testEmptyingAndFilling() {
+        ForecastListDiff.Snapshot rows = createSnapshot(new long[]{1, 2}, new int[]{800, 800});
+        ApplyingCallback callback = new ApplyingCallback(rows, ForecastListDiff.Snapshot.EMPTY);
+        assertTrue(ForecastListDiff.dispatch(rows, ForecastListDiff.Snapshot.EMPTY, callback));
+        assertEquals(0, callback.mDates.size());
+
+        callback = new ApplyingCallback(ForecastListDiff.Snapshot.EMPTY, rows);
+        assertTrue(ForecastListDiff.dispatch(ForecastListDiff.Snapshot.EMPTY, rows, callback));
+        assertEquals(1, callback.mEventCount);
+        assertEquals(2, callback.mDates.size());
+    }
+
+    public void testUnsortedRowsAreRefused() {
+        ForecastListDiff.Snapshot oldRows = createSnapshot(new long[]{1, 2}, new int[]{800, 800});
+        ForecastListDiff.Snapshot newRows = createSnapshot(new long[]{2, 1}, new int[]{800, 800});
+        ApplyingCallback callback = new ApplyingCallback(oldRows, newRows);
+        assertFalse(ForecastListDiff.dispatch(oldRows, newRows, callback));
+        assertEquals(0, callback.mEventCount);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        String key = mContext.getString(R.string.pref_units_key);
+        if (mSavedUnits == null) {
+            mPrefs.edit().remove(key).commit();
+        } else {
+            mPrefs.edit().putString(key, mSavedUnits).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testSnapshotIsReused() {
+        assertSame(SettingsSnapshot.get(mContext), SettingsSnapshot.get(mContext));
+    }
+
+    // A change made off the main thread reaches the snapshot once the listener has run there
+    public void testChangeReplacesSnapshot() {
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric)).commit();
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return Utility.isMetric(mContext);
+            }
+        }.run();
+        final SettingsSnapshot metric = SettingsSnapshot.get(mContext);
+
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_imperial)).commit();
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return !Utility.isMetric(mContext);
+            }
+        }.run();
+        // The old snapshot is left as it was for whoever still holds it
+        assertTrue(metric.mMetric);
+        assertNotSame(metric, SettingsSnapshot.get(mContext));
+    }
+}
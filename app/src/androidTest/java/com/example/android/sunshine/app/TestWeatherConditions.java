@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Checks the WeatherConditions tables against the if chains Utility used to have, for every
+    code, and logs how long each takes to look all the codes up.
+ */
+public class TestWeatherConditions extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherConditions.class.getSimpleName();
+
+    private static final int ROUNDS = 100;
+
+    // The art names of Utility.getArtUrlForWeatherCondition as it was, null for no artwork
+    static String legacyArtName(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "storm";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "light_rain";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "rain";
+        } else if (weatherId == 511) {
+            return "snow";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "rain";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "snow";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "fog";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "storm";
+        } else if (weatherId == 800) {
+            return "clear";
+        } else if (weatherId == 801) {
+            return "light_clouds";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "clouds";
+        }
+        return null;
+    }
+
+    // The icons and artwork went by the same chain, clouds being named cloudy for icons
+    static int legacyIconResource(int weatherId) {
+        String name = legacyArtName(weatherId);
+        if (name == null) {
+            return -1;
+        }
+        return getDrawable("ic_" + (name.equals("clouds") ? "cloudy" : name));
+    }
+
+    static int legacyArtResource(int weatherId) {
+        String name = legacyArtName(weatherId);
+        return name == null ? -1 : getDrawable("art_" + name);
+    }
+
+    private static int getDrawable(String name) {
+        try {
+            return R.drawable.class.getField(name).getInt(null);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public void testTablesMatchLegacyCode() {
+        String artUrlFormat = mContext.getString(R.string.pref_art_pack_sunshine);
+        for (int weatherId = -1; weatherId <= WeatherConditions.MAX_CODE + 1; weatherId++) {
+            assertEquals("Error: Wrong icon for " + weatherId, legacyIconResource(weatherId),
+                    Utility.getIconResourceForWeatherCondition(weatherId));
+            assertEquals("Error: Wrong artwork for " + weatherId, legacyArtResource(weatherId),
+                    Utility.getArtResourceForWeatherCondition(weatherId));
+
+            String artName = legacyArtName(weatherId);
+            String expectedArtUrl = artName == null ? null
+                    : String.format(Locale.US, artUrlFormat, artName);
+            if (Utility.usingLocalGraphics(mContext)) {
+                assertEquals("Error: Wrong art url for " + weatherId, expectedArtUrl,
+                        Utility.getArtUrlForWeatherCondition(mContext, weatherId));
+            }
+            assertEquals("Error: Muzei has an image for " + weatherId + " but no artwork",
+                    artName == null, Utility.getImageUrlForWeatherCondition(weatherId) == null);
+        }
+    }
+
+    public void testDescriptions() {
+        assertEquals(mContext.getString(R.string.condition_2xx),
+                Utility.getStringForWeatherCondition(mContext, 211));
+        assertEquals(mContext.getString(R.string.condition_3xx),
+                Utility.getStringForWeatherCondition(mContext, 300));
+        assertEquals(mContext.getString(R.string.condition_800),
+                Utility.getStringForWeatherCondition(mContext, 800));
+        assertEquals(mContext.getString(R.string.condition_962),
+                Utility.getStringForWeatherCondition(mContext, 962));
+        for (int unknown : new int[]{-5, 0, 505, 999, 5000}) {
+            assertEquals(mContext.getString(R.string.condition_unknown, unknown),
+                    Utility.getStringForWeatherCondition(mContext, unknown));
+        }
+    }
+
+    public void testLookupRates() {
+        String artUrlFormat = mContext.getString(R.string.pref_art_pack_sunshine);
+        int codes = WeatherConditions.MAX_CODE + 1;
+        // Something to keep the lookups from being optimized away
+        int checksum = 0;
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int weatherId = 0; weatherId < codes; weatherId++) {
+                String artName = legacyArtName(weatherId);
+                if (artName != null) {
+                    checksum += String.format(Locale.US, artUrlFormat, artName).length();
+                }
+            }
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int weatherId = 0; weatherId < codes; weatherId++) {
+                String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+                if (artUrl != null) {
+                    checksum -= artUrl.length();
+                }
+            }
+        }
+        long tableNanos = System.nanoTime() - start;
+
+        int lookups = ROUNDS * codes;
+        Log.i(LOG_TAG, lookups + " art urls: " +
+                legacyNanos / lookups + " ns each with if chains and String.format, " +
+                tableNanos / lookups + " ns each from the tables (checksum " + checksum + ")");
+    }
+}
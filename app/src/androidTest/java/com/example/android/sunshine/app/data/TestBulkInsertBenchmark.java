@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares inserting weather rows one SQLiteDatabase.insert at a time with WeatherBulkInserter's
+    compiled statement, at the row counts of one location, many locations and hourly data.  The
+    rates are logged; the test only fails if rows go missing.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final int[] ROW_COUNTS = new int[]{14, 500, 10000};
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private ContentValues[] createRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 20);
+            rows[i] = weatherValues;
+        }
+        return rows;
+    }
+
+    private long timeContentValuesInsert(ContentValues[] rows) {
+        long start = System.nanoTime();
+        mDb.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                mDb.insert(WeatherEntry.TABLE_NAME, null, row);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long timeCompiledInsert(ContentValues[] rows) {
+        long start = System.nanoTime();
+        mDb.beginTransaction();
+        WeatherBulkInserter inserter = new WeatherBulkInserter(mDb);
+        try {
+            for (ContentValues row : rows) {
+                inserter.insert(row, WeatherProvider.computeContentHash(row));
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            mDb.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long countAndClearRows() {
+        long count = DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME);
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        return count;
+    }
+
+    private static long rowsPerSecond(int rows, long nanos) {
+        return nanos == 0 ? 0 : rows * 1000000000L / nanos;
+    }
+
+    public void testInsertRates() {
+        for (int rowCount : ROW_COUNTS) {
+            ContentValues[] rows = createRows(rowCount);
+
+            long contentValuesNanos = timeContentValuesInsert(rows);
+            assertEquals(rowCount, countAndClearRows());
+
+            long compiledNanos = timeCompiledInsert(rows);
+            assertEquals("Error: The compiled insert lost rows", rowCount, countAndClearRows());
+
+            Log.i(LOG_TAG, rowCount + " rows: " +
+                    rowsPerSecond(rowCount, contentValuesNanos) + " rows/s with SQLiteDatabase.insert, " +
+                    rowsPerSecond(rowCount, compiledNanos) + " rows/s with WeatherBulkInserter");
+        }
+    }
+
+    public void testUpdateKeepsRowId() {
+        ContentValues[] rows = createRows(1);
+        WeatherBulkInserter inserter = new WeatherBulkInserter(mDb);
+        try {
+            long rowId = inserter.insert(rows[0], 1L);
+            assertTrue(rowId != -1);
+
+            rows[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+            assertEquals(1, inserter.update(rows[0], 2L));
+
+            Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME,
+                    new String[]{WeatherEntry._ID, WeatherEntry.COLUMN_SHORT_DESC,
+                            WeatherEntry.COLUMN_CONTENT_HASH},
+                    null, null, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Error: An update should not replace the row", rowId, cursor.getLong(0));
+            assertEquals("Meteors", cursor.getString(1));
+            assertEquals(2L, cursor.getLong(2));
+            cursor.close();
+        } finally {
+            inserter.close();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+    Builds a database the way each released version of the app created it, with a location and
+    a day of weather in it, and checks that WeatherDbHelper upgrades it to the same schema a new
+    install gets, without losing the data.
+
+    The schemas below are copies of what shipped and must never be edited.  When the schema
+    changes, add the new version here.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final String TEST_DATABASE = "weather_migration_test.db";
+    private static final String FRESH_DATABASE = "weather_migration_fresh.db";
+
+    private static final String LOCATION_V2 = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL  );";
+
+    // Adds the response validators
+    private static final String LOCATION_V3 = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL, " +
+            "etag TEXT, " +
+            "last_modified TEXT, " +
+            "validated_date INTEGER  );";
+
+    private static final String WEATHER_V2 = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL,  " +
+            "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+            "UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    // Adds the content hash
+    private static final String WEATHER_V4 = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            "content_hash INTEGER,  " +
+            "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+            "UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final String INDEX_V5 =
+            "CREATE INDEX weather_location_date ON weather (location_id, date, content_hash);";
+
+    private static final String HOURLY_V6 = "CREATE TABLE hourly (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_id INTEGER NOT NULL, " +
+            "time INTEGER NOT NULL, " +
+            "weather_id INTEGER NOT NULL, " +
+            "temp REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL,  " +
+            "FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+            "UNIQUE (location_id, time) ON CONFLICT REPLACE);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+        super.tearDown();
+    }
+
+    /**
+     * Creates TEST_DATABASE as the given version of the app did, with one location and one day.
+     */
+    private void createHistoricalDatabase(int version) {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DATABASE, Context.MODE_PRIVATE, null);
+        db.execSQL(version >= 3 ? LOCATION_V3 : LOCATION_V2);
+        db.execSQL(version >= 4 ? WEATHER_V4 : WEATHER_V2);
+        if (version >= 5) {
+            db.execSQL(INDEX_V5);
+        }
+        if (version >= 6) {
+            db.execSQL(HOURLY_V6);
+        }
+
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        if (version >= 4) {
+            weatherValues.put(WeatherEntry.COLUMN_CONTENT_HASH,
+                    WeatherProvider.computeContentHash(weatherValues));
+        }
+        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+
+        db.setVersion(version);
+        db.close();
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        Set<String> freshSchema = readSchema(
+                new WeatherDbHelper(mContext, FRESH_DATABASE).getReadableDatabase());
+
+        for (int version = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(TEST_DATABASE);
+            createHistoricalDatabase(version);
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE);
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: The schema upgraded from version " + version +
+                    " differs from a new database", freshSchema, readSchema(db));
+
+            Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: The location was lost upgrading from version " +
+                    version, cursor, TestUtilities.createNorthPoleLocationValues());
+
+            ContentValues weatherValues = TestUtilities.createWeatherValues(0);
+            weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+            weatherValues.put(WeatherEntry.COLUMN_CONTENT_HASH,
+                    WeatherProvider.computeContentHash(weatherValues));
+            cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+            TestUtilities.validateCursor("Error: The day was lost, or not hashed, upgrading from " +
+                    "version " + version, cursor, weatherValues);
+
+            dbHelper.close();
+        }
+    }
+
+    // Anything older than the migrations is simply started over
+    public void testUpgradeFromUnknownVersion() {
+        createHistoricalDatabase(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION);
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DATABASE, Context.MODE_PRIVATE, null);
+        db.setVersion(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION - 1);
+        db.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, TEST_DATABASE);
+        db = dbHelper.getWritableDatabase();
+        Set<String> freshSchema = readSchema(
+                new WeatherDbHelper(mContext, FRESH_DATABASE).getReadableDatabase());
+        assertEquals(freshSchema, readSchema(db));
+
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    /**
+     * @return "table.column type notnull" for every column of every table, and "index name" for
+     * every index we created.  Column order and the text of the CREATE statements are left out,
+     * since ALTER TABLE can't reproduce them.
+     */
+    private static Set<String> readSchema(SQLiteDatabase db) {
+        Set<String> schema = new HashSet<String>();
+        Cursor tables = db.rawQuery("SELECT type, name FROM sqlite_master WHERE name NOT LIKE " +
+                "'sqlite_%' AND name != 'android_metadata'", null);
+        while (tables.moveToNext()) {
+            String name = tables.getString(1);
+            if ("index".equals(tables.getString(0))) {
+                schema.add("index " + name);
+                continue;
+            }
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + name + ")", null);
+            int nameIndex = columns.getColumnIndex("name");
+            int typeIndex = columns.getColumnIndex("type");
+            int notNullIndex = columns.getColumnIndex("notnull");
+            while (columns.moveToNext()) {
+                schema.add(name + "." + columns.getString(nameIndex) + " " +
+                        columns.getString(typeIndex) + " " + columns.getInt(notNullIndex));
+            }
+            columns.close();
+        }
+        tables.close();
+        return schema;
+    }
+}
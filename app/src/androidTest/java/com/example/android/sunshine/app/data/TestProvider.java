@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -27,9 +29,13 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,6 +62,16 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -160,6 +176,13 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/hourly/94074?start=...&end=...
+        type = mContext.getContentResolver().getType(
+                HourlyEntry.buildHourlyLocationWithRange(testLocation, testDate, testDate + 1));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/hourly
+        assertEquals("Error: the HourlyEntry CONTENT_URI with location should return HourlyEntry.CONTENT_TYPE",
+                HourlyEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +535,377 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Re-inserting the same forecast should not rewrite anything or notify anyone, and
+    // changing one day should only write that day.
+    public void testBulkInsertSkipsUnchangedDays() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] rowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        // Same forecast again: nothing should change
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: Unchanged days should not be rewritten", 0, insertCount);
+
+        // Change the forecast for one day only
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, changedValues);
+        assertEquals("Error: Only the changed day should be written", 1, insertCount);
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        int idIndex = cursor.getColumnIndex(WeatherEntry._ID);
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            // Changed days are updated in place, so every row keeps its id
+            assertEquals("Error: Row " + i + " was replaced instead of updated",
+                    rowIds[i], cursor.getLong(idIndex));
+            TestUtilities.validateCurrentRecord("testBulkInsertSkipsUnchangedDays.  Error validating WeatherEntry " + i,
+                    cursor, changedValues[i]);
+        }
+        cursor.close();
+    }
+
+    // The provider resolves location settings to ids from memory, so make sure it notices
+    // when the location table changes underneath
+    public void testLocationSettingResolution() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+
+        // Adding the same location again hands back the row we already have
+        long secondRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        assertEquals("Error: A second insert of the same location created a new row",
+                locationRowId, secondRowId);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        // Weather columns only, which the provider reads without joining location
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC},
+                null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // Location columns too
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        assertTrue(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME) != -1);
+        cursor.close();
+
+        // Move the location to another setting
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "12345");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, updatedValues,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: The old location setting still finds the weather",
+                0, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("12345"),
+                null, null, null, null);
+        assertEquals("Error: The new location setting doesn't find the weather",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    // The sync adapter writes a location, its days and the delete of past days as one batch
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+            weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newUpdate(WeatherEntry.buildWeatherUpsertUri())
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        int written = 0;
+        for (int i = 1; i <= BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            written += results[i].count;
+        }
+        assertEquals("Error: Not every day of the batch was written",
+                BULK_INSERT_RECORDS_TO_INSERT, written);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationRowId)},
+                null);
+        assertEquals("Error: The days didn't get the id of the location added in the batch",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // The same batch again: the location and every day are already stored
+        results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals("Error: The location was added twice",
+                locationRowId, ContentUris.parseId(results[0].uri));
+        for (int i = 1; i <= BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            assertEquals("Error: Unchanged day " + i + " was written again", 0, results[i].count);
+        }
+
+        // A day changed twice within one batch: the second write sees the first one
+        ContentValues changedValues = TestUtilities.createWeatherValues(locationRowId);
+        changedValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        operations.clear();
+        for (int i = 0; i < 2; i++) {
+            operations.add(ContentProviderOperation.newUpdate(WeatherEntry.buildWeatherUpsertUri())
+                    .withValues(changedValues)
+                    .build());
+        }
+        results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals("Error: The changed day wasn't written", 1, results[0].count);
+        assertEquals("Error: The changed day was written again", 0, results[1].count);
+    }
+
+    // Hourly points are read back by time range, and a point stored again replaces the old one
+    public void testHourlyRangeQuery() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        final int pointCount = 40;
+        final long step = 3 * 60 * 60 * 1000;
+        ContentValues[] hourlyValues = new ContentValues[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            hourlyValues[i] = TestUtilities.createHourlyValues(locationRowId,
+                    TestUtilities.TEST_DATE + i * step);
+        }
+        assertEquals(pointCount,
+                mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, hourlyValues));
+
+        // The second day: points 8 to 15
+        long dayStart = TestUtilities.TEST_DATE + 8 * step;
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                        dayStart, dayStart + 8 * step),
+                null, null, null, null);
+        assertEquals("Error: The range didn't return exactly its points", 8, cursor.getCount());
+        int timeIndex = cursor.getColumnIndex(HourlyEntry.COLUMN_TIME);
+        for (int i = 8; cursor.moveToNext(); i++) {
+            assertEquals("Error: Hourly points out of order", hourlyValues[i].getAsLong(
+                    HourlyEntry.COLUMN_TIME).longValue(), cursor.getLong(timeIndex));
+        }
+        cursor.close();
+
+        // Store one point again, with a new temperature
+        ContentValues changedValues = TestUtilities.createHourlyValues(locationRowId, dayStart);
+        changedValues.put(HourlyEntry.COLUMN_TEMP, -40.0);
+        mContext.getContentResolver().insert(HourlyEntry.CONTENT_URI, changedValues);
+
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: Storing a point again added a row", pointCount, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                        dayStart, dayStart + 1),
+                null, null, null, null);
+        TestUtilities.validateCursor("testHourlyRangeQuery.  Error validating the replaced point",
+                cursor, changedValues);
+    }
+
+    // Archived days leave the weather table but are still read, with the rest, through history
+    public void testArchiveAndHistory() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] dates = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            dates[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        // Archive the first half, then the first day again, which must not duplicate it
+        final int archivedCount = BULK_INSERT_RECORDS_TO_INSERT / 2;
+        int moved = mContext.getContentResolver().delete(WeatherEntry.buildWeatherArchiveUri(),
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(dates[archivedCount])});
+        assertEquals("Error: The wrong days were archived", archivedCount, moved);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues[0]);
+        mContext.getContentResolver().delete(WeatherEntry.buildWeatherArchiveUri(),
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(dates[archivedCount])});
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Archived days are still in the weather table",
+                BULK_INSERT_RECORDS_TO_INSERT - archivedCount, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationWithRange(TestUtilities.TEST_LOCATION, 0,
+                        dates[dates.length - 1] + 30L * 24 * 60 * 60 * 1000),
+                null, null, null, null);
+        assertEquals("Error: History didn't return every day, archived or not",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals(dates[i], cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+            assertEquals(weatherValues[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+            // The archive keeps two decimals
+            for (String column : new String[]{WeatherEntry.COLUMN_MIN_TEMP,
+                    WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_HUMIDITY,
+                    WeatherEntry.COLUMN_PRESSURE, WeatherEntry.COLUMN_WIND_SPEED,
+                    WeatherEntry.COLUMN_DEGREES}) {
+                assertEquals("Error: Day " + i + " has the wrong " + column,
+                        weatherValues[i].getAsDouble(column),
+                        cursor.getDouble(cursor.getColumnIndex(column)), 0.005);
+            }
+        }
+        cursor.close();
+
+        // A range in the middle, straddling the two tables
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationWithRange(TestUtilities.TEST_LOCATION,
+                        dates[archivedCount - 1], dates[archivedCount + 1]),
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+    }
+
+    // Changing one day should reach observers of that day and of its location, not those of
+    // the other days
+    public void testChangeNotifiesOnlyThatDay() throws Exception {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        long changedDate = cursor.getLong(0);
+        assertTrue(cursor.moveToNext());
+        long otherDate = cursor.getLong(0);
+        cursor.close();
+
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                false, dayObserver);
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                locationObserver);
+        TestUtilities.TestContentObserver otherDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, otherDate),
+                true, otherDayObserver);
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 99.0);
+        int updated = mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(changedDate)});
+        assertEquals(1, updated);
+
+        dayObserver.waitForNotificationOrFail();
+        locationObserver.waitForNotificationOrFail();
+        // Give a wrong notification the same chance to arrive
+        Thread.sleep(500);
+        assertFalse("Error: Changing one day notified the observers of another",
+                otherDayObserver.mContentChanged);
+        otherDayObserver.mHT.quit();
+
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+    }
+
+    // A batch that changes more days than are worth naming tells observers the whole table
+    // changed, once, and still names whatever else it changed
+    public void testLargeBatchNotifiesTable() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        long dayInMillis = 1000 * 60 * 60 * 24L;
+        for (int i = 0; i <= WeatherProvider.MAX_DAY_NOTIFICATIONS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(0);
+            weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * dayInMillis);
+            operations.add(ContentProviderOperation.newUpdate(WeatherEntry.buildWeatherUpsertUri())
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        // Neither hears about changes below its uri, only about the uri itself
+        TestUtilities.TestContentObserver tableObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, false,
+                tableObserver);
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, false,
+                locationObserver);
+
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        tableObserver.waitForNotificationOrFail();
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(tableObserver);
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+    }
+
+    // A day without its location is refused by the database, not by a crash in the provider
+    public void testWeatherWithoutLocation() {
+        ContentValues weatherValues = TestUtilities.createWeatherValues(0);
+        weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+
+        try {
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+            fail("Error: A day without a location was inserted");
+        } catch (android.database.SQLException e) {
+            // expected
+        }
+
+        assertEquals("Error: A day without a location was upserted", 0,
+                mContext.getContentResolver().update(WeatherEntry.buildWeatherUpsertUri(),
+                        weatherValues, null, null));
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.regex.Pattern;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries WeatherProvider issues for each of its routes, and
+    fails if any of them has to scan a whole table or sort its results by hand.  Those costs grow
+    with every location and every day stored, so they must never come back unnoticed.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+
+    // Older SQLite versions say "SCAN TABLE weather", newer ones "SCAN weather"
+    private static final Pattern FULL_SCAN = Pattern.compile(
+            "^SCAN (TABLE )?(" + WeatherEntry.TABLE_NAME + "|" + LocationEntry.TABLE_NAME + "|" +
+                    HourlyEntry.TABLE_NAME + "|" + HistoryEntry.TABLE_NAME + ")\\b");
+    private static final String SORT = "USE TEMP B-TREE";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private void assertIndexedPlan(String route, String sql, String... args) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        StringBuilder plan = new StringBuilder();
+        boolean scans = false;
+        boolean sorts = false;
+        while (cursor.moveToNext()) {
+            String detail = cursor.getString(detailIndex);
+            plan.append("\n  ").append(detail);
+            scans |= FULL_SCAN.matcher(detail).find();
+            sorts |= detail.startsWith(SORT);
+        }
+        cursor.close();
+
+        assertFalse("Error: " + route + " scans a whole table:" + plan, scans);
+        assertFalse("Error: " + route + " sorts its results by hand:" + plan, sorts);
+    }
+
+    private String buildJoinQuery(String selection, String sortOrder) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, selection, null, null, sortOrder, null);
+    }
+
+    private String buildWeatherQuery(String selection, String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME, null,
+                selection, null, null, sortOrder, null);
+    }
+
+    // weather/*, as ForecastFragment loads it (with location columns) and as projections
+    // without them do
+    public void testWeatherWithLocation() {
+        assertIndexedPlan("weather/*",
+                buildJoinQuery(WeatherProvider.sLocationIdSelection,
+                        WeatherEntry.COLUMN_DATE + " ASC"),
+                "1");
+        assertIndexedPlan("weather/*?date=",
+                buildJoinQuery(WeatherProvider.sLocationIdWithStartDateSelection,
+                        WeatherEntry.COLUMN_DATE + " ASC"),
+                "1", Long.toString(TEST_DATE));
+        assertIndexedPlan("weather/*?date= (weather columns only)",
+                buildWeatherQuery(WeatherProvider.sLocationIdWithStartDateSelection,
+                        WeatherEntry.COLUMN_DATE + " ASC"),
+                "1", Long.toString(TEST_DATE));
+    }
+
+    // weather/*/#, as DetailFragment loads it
+    public void testWeatherWithLocationAndDate() {
+        assertIndexedPlan("weather/*/#",
+                buildJoinQuery(WeatherProvider.sLocationIdAndDaySelection, null),
+                "1", Long.toString(TEST_DATE));
+    }
+
+    // weather, with the selections the provider and the sync adapter use on it
+    public void testWeather() {
+        assertIndexedPlan("weather (update of a day)",
+                "SELECT * FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherProvider.sLocationIdAndDaySelection,
+                "1", Long.toString(TEST_DATE));
+        assertIndexedPlan("weather (stored content hashes)",
+                "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+                        WeatherEntry.COLUMN_CONTENT_HASH + " FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " IN (1,2) AND " +
+                        WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?",
+                Long.toString(TEST_DATE), Long.toString(TEST_DATE + 13 * 86400000L));
+        assertIndexedPlan("weather (delete of past days)",
+                "SELECT * FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?",
+                Long.toString(TEST_DATE));
+    }
+
+    // hourly/*, and the delete of past points by the sync adapter
+    public void testHourly() {
+        assertIndexedPlan("hourly/*?start=&end=",
+                SQLiteQueryBuilder.buildQueryString(false, HourlyEntry.TABLE_NAME, null,
+                        WeatherProvider.sHourlyRangeSelection, null, null,
+                        HourlyEntry.COLUMN_TIME + " ASC", null),
+                "1", Long.toString(TEST_DATE), Long.toString(TEST_DATE + 86400000L));
+        assertIndexedPlan("hourly (delete of past points)",
+                "SELECT * FROM " + HourlyEntry.TABLE_NAME +
+                        " WHERE " + HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        HourlyEntry.COLUMN_TIME + " < ?",
+                "1", Long.toString(TEST_DATE));
+    }
+
+    // history/*, which reads both the history and the weather table, and the merge of newly
+    // archived days into their month
+    public void testHistory() {
+        assertIndexedPlan("history/* (archived blocks)",
+                "SELECT " + HistoryEntry.COLUMN_DAYS + " FROM " + HistoryEntry.TABLE_NAME +
+                        " WHERE " + WeatherProvider.sHistoryRangeSelection,
+                "1", Long.toString(TEST_DATE), Long.toString(TEST_DATE + 365 * 86400000L));
+        assertIndexedPlan("history/* (recent days)",
+                buildWeatherQuery(WeatherProvider.sLocationIdWithDateRangeSelection, null),
+                "1", Long.toString(TEST_DATE), Long.toString(TEST_DATE + 365 * 86400000L));
+        assertIndexedPlan("history (block of a month)",
+                "SELECT " + HistoryEntry.COLUMN_DAYS + " FROM " + HistoryEntry.TABLE_NAME +
+                        " WHERE " + WeatherProvider.sHistoryMonthSelection,
+                "1", "24180");
+    }
+
+    // location, as the provider resolves a location setting to its id
+    public void testLocation() {
+        assertIndexedPlan("location",
+                "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                        " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                TEST_LOCATION);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.QueryCacheEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+public class TestQueryResultCache extends AndroidTestCase {
+
+    private static final String[] TEST_COLUMNS = new String[]{"_id", "name", "value"};
+
+    private static Cursor createCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(TEST_COLUMNS);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{(long) i, "row " + i, i * 1.5});
+        }
+        return cursor;
+    }
+
+    public void testHitServesOwnCopy() {
+        QueryResultCache cache = new QueryResultCache();
+        assertNull(cache.get("key"));
+
+        Cursor cursor = cache.put("key", 1, cache.getGeneration(), createCursor(3));
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+
+        Cursor first = cache.get("key");
+        Cursor second = cache.get("key");
+        assertNotNull("Error: The result wasn't cached", first);
+        assertNotSame(first, second);
+
+        // Moving or closing one copy must not affect the other
+        first.moveToLast();
+        first.close();
+        assertTrue(second.moveToFirst());
+        assertEquals(0L, second.getLong(0));
+        assertEquals("row 0", second.getString(1));
+        second.moveToLast();
+        assertEquals(3.0, second.getDouble(2));
+        second.close();
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testInvalidation() {
+        QueryResultCache cache = new QueryResultCache();
+        cache.put("one", 1, cache.getGeneration(), createCursor(1)).close();
+        cache.put("two", 2, cache.getGeneration(), createCursor(1)).close();
+
+        cache.invalidateLocation(1);
+        assertNull("Error: Location 1 is still cached", cache.get("one"));
+        assertNotNull("Error: Location 2 should not have been dropped", cache.get("two"));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    public void testStaleResultIsNotCached() {
+        QueryResultCache cache = new QueryResultCache();
+        long generation = cache.getGeneration();
+        // The data changes while the query is running
+        cache.invalidateLocation(1);
+
+        Cursor cursor = cache.put("key", 1, generation, createCursor(2));
+        assertEquals("Error: The caller should still get its result", 2, cursor.getCount());
+        cursor.close();
+        assertNull("Error: A result read before a change was cached", cache.get("key"));
+    }
+
+    public void testBounds() {
+        QueryResultCache cache = new QueryResultCache(2, 10);
+
+        cache.put("large", 1, cache.getGeneration(), createCursor(11)).close();
+        assertEquals("Error: A result over the row limit was cached", 0, cache.size());
+
+        cache.put("a", 1, cache.getGeneration(), createCursor(1)).close();
+        cache.put("b", 1, cache.getGeneration(), createCursor(1)).close();
+        // Use "a", so "b" is the least recently used when "c" comes in
+        cache.get("a").close();
+        cache.put("c", 1, cache.getGeneration(), createCursor(1)).close();
+
+        assertEquals(2, cache.size());
+        assertNull("Error: The least recently used result was kept", cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+    }
+
+    // Through the provider: a repeated query is a hit, and a write to the location makes it a
+    // miss again
+    public void testProviderQueries() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(locationRowId));
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        long[] before = getHitsAndMisses();
+
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        assertEquals(count, cursor.getCount());
+        cursor.close();
+
+        long[] after = getHitsAndMisses();
+        assertEquals("Error: The first query should miss", before[1] + 1, after[1]);
+        assertEquals("Error: The second query should hit", before[0] + 1, after[0]);
+
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        String[] projection = new String[]{WeatherEntry.COLUMN_SHORT_DESC};
+        mContext.getContentResolver().query(dayUri, projection, null, null, null).close();
+
+        ContentValues changedValues = TestUtilities.createWeatherValues(locationRowId);
+        changedValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{changedValues});
+
+        cursor = mContext.getContentResolver().query(dayUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: A stale result was served after a write", "Meteors",
+                cursor.getString(0));
+        cursor.close();
+    }
+
+    // Saving the response validators ends every sync, and must not cost the cached forecasts
+    // that don't read them
+    public void testValidatorUpdateKeepsCachedWeather() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(locationRowId));
+
+        Uri weatherUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String[] projection = new String[]{WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC, LocationEntry.COLUMN_CITY_NAME};
+        mContext.getContentResolver().query(weatherUri, projection, null, null, null).close();
+        mContext.getContentResolver().query(weatherUri, null, null, null, null).close();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withValue(LocationEntry.COLUMN_ETAG, "\"changed\"")
+                .withValue(LocationEntry.COLUMN_LAST_MODIFIED, "Wed, 21 Oct 2015 07:28:00 GMT")
+                .withValue(LocationEntry.COLUMN_VALIDATED_DATE, System.currentTimeMillis())
+                .withSelection(LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{TestUtilities.TEST_LOCATION})
+                .build());
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        long[] before = getHitsAndMisses();
+        mContext.getContentResolver().query(weatherUri, projection, null, null, null).close();
+        long[] after = getHitsAndMisses();
+        assertEquals("Error: Saving the validators dropped a result that doesn't read them",
+                before[0] + 1, after[0]);
+
+        // The result with all columns did read them
+        Cursor cursor = mContext.getContentResolver().query(weatherUri, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: A stale etag was served after a write", "\"changed\"",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_ETAG)));
+        cursor.close();
+    }
+
+    private long[] getHitsAndMisses() {
+        Cursor cursor = mContext.getContentResolver().query(
+                QueryCacheEntry.CONTENT_URI, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        long[] hitsAndMisses = new long[]{
+                cursor.getLong(cursor.getColumnIndex(QueryCacheEntry.COLUMN_HITS)),
+                cursor.getLong(cursor.getColumnIndex(QueryCacheEntry.COLUMN_MISSES))};
+        cursor.close();
+        return hitsAndMisses;
+    }
+}
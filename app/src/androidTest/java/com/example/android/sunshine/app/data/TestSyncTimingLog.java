@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncTimingEntry;
+
+public class TestSyncTimingLog extends AndroidTestCase {
+
+    private static final long TEST_SYNC_ID = 1419033600000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncTimingLog.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncTimingLog.clear();
+        super.tearDown();
+    }
+
+    public void testBufferKeepsLatestSamples() {
+        int recorded = SyncTimingLog.CAPACITY + 10;
+        for (int i = 0; i < recorded; i++) {
+            SyncTimingLog.record(TEST_SYNC_ID, SyncTimingEntry.STAGE_PARSE, i * 1000000L);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncTimingEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals("Error: The ring buffer should hold exactly CAPACITY samples",
+                SyncTimingLog.CAPACITY, cursor.getCount());
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The oldest samples should have been overwritten",
+                10.0, cursor.getDouble(cursor.getColumnIndex(SyncTimingEntry.COLUMN_DURATION)));
+        assertTrue(cursor.moveToLast());
+        assertEquals(recorded - 1, cursor.getLong(cursor.getColumnIndex(SyncTimingEntry._ID)));
+        cursor.close();
+    }
+
+    public void testSummaryPercentiles() {
+        // 1 to 100ms for one stage, a single 5ms sample for another
+        for (int i = 1; i <= 100; i++) {
+            SyncTimingLog.record(TEST_SYNC_ID + i, SyncTimingEntry.STAGE_DOWNLOAD, i * 1000000L);
+        }
+        SyncTimingLog.record(TEST_SYNC_ID, SyncTimingEntry.STAGE_APPLY_BATCH, 5000000L);
+
+        Cursor cursor = mContext.getContentResolver().query(SyncTimingEntry.SUMMARY_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(2, cursor.getCount());
+
+        assertTrue(cursor.moveToFirst());
+        assertEquals(SyncTimingEntry.STAGE_DOWNLOAD,
+                cursor.getString(cursor.getColumnIndex(SyncTimingEntry.COLUMN_STAGE)));
+        assertEquals(100, cursor.getInt(cursor.getColumnIndex(SyncTimingEntry.COLUMN_COUNT)));
+        assertEquals(50.0, cursor.getDouble(cursor.getColumnIndex(SyncTimingEntry.COLUMN_P50)));
+        assertEquals(95.0, cursor.getDouble(cursor.getColumnIndex(SyncTimingEntry.COLUMN_P95)));
+        assertEquals(100.0, cursor.getDouble(cursor.getColumnIndex(SyncTimingEntry.COLUMN_MAX)));
+
+        assertTrue(cursor.moveToNext());
+        assertEquals(5.0, cursor.getDouble(cursor.getColumnIndex(SyncTimingEntry.COLUMN_P95)));
+        cursor.close();
+    }
+
+    public void testTimingsAreReadOnly() {
+        try {
+            mContext.getContentResolver().delete(SyncTimingEntry.CONTENT_URI, null, null);
+            fail("Error: Sync timings should not be deletable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
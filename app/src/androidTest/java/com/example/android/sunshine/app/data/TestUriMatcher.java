@@ -36,6 +36,17 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/sync_timing"
+    private static final Uri TEST_SYNC_TIMING_DIR = WeatherContract.SyncTimingEntry.CONTENT_URI;
+    private static final Uri TEST_SYNC_TIMING_SUMMARY_DIR = WeatherContract.SyncTimingEntry.SUMMARY_URI;
+    // content://com.example.android.sunshine.app/query_cache"
+    private static final Uri TEST_QUERY_CACHE_ITEM = WeatherContract.QueryCacheEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/history"
+    private static final Uri TEST_HISTORY_DIR = WeatherContract.HistoryEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + 1);
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + 1);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +64,19 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The SYNC TIMING URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_TIMING_DIR), WeatherProvider.SYNC_TIMING);
+        assertEquals("Error: The SYNC TIMING SUMMARY URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_TIMING_SUMMARY_DIR), WeatherProvider.SYNC_TIMING_SUMMARY);
+        assertEquals("Error: The QUERY CACHE URI was matched incorrectly.",
+                testMatcher.match(TEST_QUERY_CACHE_ITEM), WeatherProvider.QUERY_CACHE);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_DIR), WeatherProvider.HISTORY);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
     }
 }
@@ -58,6 +58,19 @@ public class TestUtilities extends AndroidTestCase {
         }
     }
 
+    static ContentValues createHourlyValues(long locationRowId, long time) {
+        ContentValues hourlyValues = new ContentValues();
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TIME, time);
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, 321);
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP, -60.5);
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, 1.2);
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, 1.3);
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, 5.5);
+        hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, 1.1);
+        return hourlyValues;
+    }
+
     /*
         Students: Use this to create some default weather values for your database tests.
      */
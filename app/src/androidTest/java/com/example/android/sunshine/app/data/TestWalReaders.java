@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/*
+    Benchmark for reads that happen while a sync writes: the forecast list keeps querying one
+    location while a large bulk insert goes into another.  With write-ahead logging the reads go
+    on during the write instead of queueing up behind it.
+ */
+public class TestWalReaders extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWalReaders.class.getSimpleName();
+
+    private static final int WRITE_ROW_COUNT = 10000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // Set by the writer thread, read by the test thread
+    private volatile long mWriteStart;
+    private volatile long mWriteEnd;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        return ContentUris.parseId(locationUri);
+    }
+
+    private static ContentValues[] createDays(long locationId, int count) {
+        ContentValues[] days = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 20);
+            days[i] = weatherValues;
+        }
+        return days;
+    }
+
+    public void testReadersDuringSyncWrite() throws InterruptedException {
+        long readLocationId = insertLocation(TestUtilities.TEST_LOCATION);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createDays(readLocationId, 14));
+        final ContentValues[] writeDays = createDays(insertLocation("94043"), WRITE_ROW_COUNT);
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mWriteStart = SystemClock.elapsedRealtime();
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, writeDays);
+                mWriteEnd = SystemClock.elapsedRealtime();
+            }
+        });
+
+        ArrayList<Long> latencies = new ArrayList<Long>();
+        int readsDuringWrite = 0;
+        long hitsBefore = getCacheHits();
+
+        writer.start();
+        while (writer.isAlive()) {
+            // A start date further back each time still covers the same days, but is a query
+            // the provider hasn't cached, so every read goes to the database
+            Uri readUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                    TestUtilities.TEST_LOCATION,
+                    TestUtilities.TEST_DATE - (latencies.size() + 1) * DAY_IN_MILLIS);
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = mContext.getContentResolver().query(readUri, null, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            assertNotNull(cursor);
+            assertEquals(14, cursor.getCount());
+            cursor.close();
+            long end = SystemClock.elapsedRealtime();
+
+            latencies.add(end - start);
+            if (mWriteStart != 0 && start >= mWriteStart && writer.isAlive()) {
+                readsDuringWrite++;
+            }
+        }
+        writer.join();
+        assertEquals("Error: A read was served from the query cache", hitsBefore, getCacheHits());
+
+        Collections.sort(latencies);
+        long writeMillis = mWriteEnd - mWriteStart;
+        long maxLatency = latencies.get(latencies.size() - 1);
+        Log.i(LOG_TAG, "Writing " + WRITE_ROW_COUNT + " rows took " + writeMillis + "ms; " +
+                latencies.size() + " reads, " + readsDuringWrite + " during the write, p50 " +
+                latencies.get(latencies.size() / 2) + "ms, max " + maxLatency + "ms");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            assertTrue("Error: No read completed while the sync was writing", readsDuringWrite > 0);
+            assertTrue("Error: A read waited for the whole write", maxLatency < writeMillis);
+        }
+    }
+
+    private long getCacheHits() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.QueryCacheEntry.CONTENT_URI, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        long hits = cursor.getLong(cursor.getColumnIndex(WeatherContract.QueryCacheEntry.COLUMN_HITS));
+        cursor.close();
+        return hits;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Round trips of WeatherArchive blocks, and a check that they stay compact.
+ */
+public class TestWeatherArchive extends AndroidTestCase {
+
+    private static final long LOCATION_ID = 7;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long TEST_DATE = 1419033600000L;  // December 20th, 2014
+
+    private static WeatherArchive.Day createDay(long date, long weatherId, String description,
+                                                double... measurements) {
+        WeatherArchive.Day day = new WeatherArchive.Day();
+        day.mValues[WeatherArchive.INDEX_LOC_KEY] = LOCATION_ID;
+        day.mValues[WeatherArchive.INDEX_DATE] = date;
+        day.mValues[WeatherArchive.INDEX_WEATHER_ID] = weatherId;
+        day.mValues[WeatherArchive.INDEX_SHORT_DESC] = description;
+        for (int i = 0; i < WeatherArchive.MEASUREMENT_COUNT; i++) {
+            day.mValues[WeatherArchive.INDEX_FIRST_MEASUREMENT + i] = measurements[i];
+        }
+        return day;
+    }
+
+    public void testRoundTrip() {
+        List<WeatherArchive.Day> days = new ArrayList<WeatherArchive.Day>();
+        days.add(createDay(TEST_DATE, 800, "Clear", -12.5, -3.25, 81, 1013.25, 3.1, 270));
+        days.add(createDay(TEST_DATE + DAY_IN_MILLIS, 600, "Snow", -20, -14.01, 90, 998, 0, 0));
+        // A missed day, and a daylight saving change
+        days.add(createDay(TEST_DATE + 3 * DAY_IN_MILLIS - 3600000, 800, "Clear",
+                40.75, 45.5, 5, 1100, 25.33, 359.99));
+        days.add(createDay(TEST_DATE + 4 * DAY_IN_MILLIS, 511, "Tr\u00e8s froid", 0, 0, 0, 0, 0, 0));
+
+        List<WeatherArchive.Day> decoded =
+                WeatherArchive.decode(LOCATION_ID, WeatherArchive.encode(days));
+        assertEquals(days.size(), decoded.size());
+        for (int i = 0; i < days.size(); i++) {
+            assertTrue("Error: Day " + i + " changed in the archive: " +
+                            Arrays.toString(decoded.get(i).mValues),
+                    Arrays.equals(days.get(i).mValues, decoded.get(i).mValues));
+        }
+    }
+
+    // A month of ordinary days should take well under the size of its weather rows
+    public void testBlockIsCompact() {
+        List<WeatherArchive.Day> days = new ArrayList<WeatherArchive.Day>();
+        for (int i = 0; i < 31; i++) {
+            days.add(createDay(TEST_DATE + i * DAY_IN_MILLIS, 800 + i % 3,
+                    i % 2 == 0 ? "Clear" : "Clouds",
+                    -10 + i % 5, 2.5 + i % 7, 70 + i % 9, 1010.5 + i % 4, 1.5 + i % 3, (i * 37) % 360));
+        }
+        byte[] block = WeatherArchive.encode(days);
+        assertTrue("Error: A month takes " + block.length + " bytes", block.length < 31 * 20);
+    }
+
+    public void testCorruptBlockIsRejected() {
+        List<WeatherArchive.Day> days = new ArrayList<WeatherArchive.Day>();
+        days.add(createDay(TEST_DATE, 800, "Clear", 1, 2, 3, 4, 5, 6));
+        byte[] block = WeatherArchive.encode(days);
+        try {
+            WeatherArchive.decode(LOCATION_ID, Arrays.copyOf(block, block.length - 2));
+            fail("Error: A truncated block was decoded");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -17,6 +17,9 @@ package com.example.android.sunshine.app.data;
 
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
@@ -42,4 +45,37 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    // How normalizeDate used to work it out, with Time in the default time zone
+    private static long normalizeDateWithTime(long date) {
+        Time time = new Time();
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    // The allocation-free normalizeDate must agree with the Time based one, daylight saving
+    // changes included
+    public void testNormalizeDateWithTimeZone() {
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try {
+            for (String id : new String[]{"America/Los_Angeles", "Europe/London",
+                    "Australia/Lord_Howe", "Asia/Kolkata", "UTC"}) {
+                TimeZone timeZone = TimeZone.getTimeZone(id);
+                TimeZone.setDefault(timeZone);
+                WeatherContract.onTimeZoneChanged();
+                // every 15 minutes through 2015
+                for (long date = 1420070400000L; date < 1451606400000L; date += 15 * 60 * 1000) {
+                    long expected = normalizeDateWithTime(date);
+                    assertEquals("Error: Dates normalized differently in " + id + " at " + date,
+                            expected, WeatherContract.normalizeDate(date));
+                    assertEquals("Error: Dates normalized differently in " + id + " at " + date,
+                            expected, WeatherContract.normalizeDate(date, timeZone));
+                }
+            }
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+            WeatherContract.onTimeZoneChanged();
+        }
+    }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    An OpenWeatherMap look-alike on the loopback interface, so the sync pipeline can be loaded
+    and timed without a network.  It answers every request with the same body: either a recorded
+    response set with setPayload, or a synthetic forecast of setDayCount days.  Each response can
+    be held back by setLatencyMillis to mimic a slow link, and the requests for one location can
+    be failed with setFailingLocation.  Requests are served concurrently.
+ */
+class FakeWeatherServer {
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    private volatile byte[] mPayload;
+    private volatile long mLatencyMillis;
+    private volatile String mFailingLocation;
+
+    FakeWeatherServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        setDayCount(14);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    void shutdown() throws IOException {
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return an OWM source that downloads from this server instead of the real one.
+     */
+    WeatherSource getWeatherSource() {
+        String baseUrl = "http://127.0.0.1:" + mServerSocket.getLocalPort();
+        return new OwmWeatherSource(baseUrl + "/forecast/daily?", baseUrl + "/forecast?");
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Answers every request for the given location setting with a server error.
+     */
+    void setFailingLocation(String locationSetting) {
+        mFailingLocation = locationSetting;
+    }
+
+    void setPayload(String payload) {
+        try {
+            mPayload = payload.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    void setDayCount(int dayCount) {
+        setPayload(createForecastJson(dayCount));
+    }
+
+    int getPayloadSize() {
+        return mPayload.length;
+    }
+
+    /**
+     * @return a well formed OWM daily forecast with the given number of days, whose values
+     * vary from day to day.
+     */
+    static String createForecastJson(int dayCount) {
+        StringBuilder json = new StringBuilder(200 + dayCount * 260);
+        json.append("{\"city\":{\"id\":5879400,\"name\":\"North Pole\",")
+                .append("\"coord\":{\"lon\":-147.353,\"lat\":64.7488},\"country\":\"US\"},")
+                .append("\"cod\":\"200\",\"message\":0.0032,\"cnt\":").append(dayCount)
+                .append(",\"list\":[");
+        for (int i = 0; i < dayCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f," +
+                            "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"Clear\",\"description\":\"sky is clear\"," +
+                            "\"icon\":\"01d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":0}",
+                    1419033600L + i * 86400L, 20.0 + i % 7, 10.0 + i % 5, 25.0 + i % 9, 12.0, 18.0, 11.0,
+                    1000.0 + i % 30, 40 + i % 50, 800 + i % 5, 1.0 + (i % 10) / 2.0, (i * 37) % 360));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // The socket was closed by shutdown
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            // Only the request line matters, the headers are read and ignored
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String requestLine = in.readLine();
+            String line = requestLine;
+            while (line != null && line.length() > 0) {
+                line = in.readLine();
+            }
+            mRequestCount.incrementAndGet();
+
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+
+            OutputStream out = socket.getOutputStream();
+            if (isFailing(requestLine)) {
+                out.write(("HTTP/1.1 503 Service Unavailable\r\n" +
+                        "Content-Length: 0\r\n" +
+                        "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+                out.flush();
+                return;
+            }
+
+            byte[] payload = mPayload;
+            String headers = "HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: application/json; charset=utf-8\r\n" +
+                    "Content-Length: " + payload.length + "\r\n" +
+                    "Connection: close\r\n\r\n";
+            out.write(headers.getBytes("US-ASCII"));
+            out.write(payload);
+            out.flush();
+        } catch (IOException e) {
+            // The client went away; nothing to serve
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    // requestLine is "GET /forecast/daily?q=...&... HTTP/1.1"
+    private boolean isFailing(String requestLine) {
+        String failingLocation = mFailingLocation;
+        if (failingLocation == null || requestLine == null) {
+            return false;
+        }
+        String[] parts = requestLine.split(" ");
+        return parts.length > 1
+                && failingLocation.equals(Uri.parse(parts[1]).getQueryParameter("q"));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+
+/*
+    Checks that forecast validators survive a round trip through the location table and that a
+    replayed ETag turns the request into a 304, using a tiny HTTP server on the loopback interface.
+ */
+public class TestResponseValidators extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final String TEST_ETAG = "\"forecast-1\"";
+    private static final String TEST_LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+
+    private ServerSocket mServerSocket;
+    private Thread mServerThread;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllLocations();
+
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        mServerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        });
+        mServerThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServerSocket.close();
+        mServerThread.join();
+        deleteAllLocations();
+        super.tearDown();
+    }
+
+    private void deleteAllLocations() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // Answers 304 when the request carries our ETag, and a full response otherwise.
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                Socket socket = mServerSocket.accept();
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                boolean conditional = false;
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    if (line.startsWith(ResponseValidators.HEADER_IF_NONE_MATCH + ":")
+                            && line.contains(TEST_ETAG)) {
+                        conditional = true;
+                    }
+                }
+
+                String response;
+                if (conditional) {
+                    response = "HTTP/1.1 304 Not Modified\r\n" +
+                            "Connection: close\r\n\r\n";
+                } else {
+                    response = "HTTP/1.1 200 OK\r\n" +
+                            ResponseValidators.HEADER_ETAG + ": " + TEST_ETAG + "\r\n" +
+                            ResponseValidators.HEADER_LAST_MODIFIED + ": " + TEST_LAST_MODIFIED + "\r\n" +
+                            "Content-Type: application/json\r\n" +
+                            "Content-Length: 2\r\n" +
+                            "Connection: close\r\n\r\n{}";
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(response.getBytes("US-ASCII"));
+                out.flush();
+                socket.close();
+            } catch (IOException e) {
+                // The socket was closed by tearDown
+            }
+        }
+    }
+
+    private HttpURLConnection openConnection() throws IOException {
+        URL url = new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + "/forecast");
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setUseCaches(false);
+        return urlConnection;
+    }
+
+    private void insertTestLocation() {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI, values);
+    }
+
+    public void testValidatorsAreReadFromResponse() throws IOException {
+        HttpURLConnection urlConnection = openConnection();
+        assertEquals(HttpURLConnection.HTTP_OK, urlConnection.getResponseCode());
+
+        ResponseValidators validators = ResponseValidators.fromConnection(urlConnection);
+        urlConnection.disconnect();
+
+        assertEquals("Error: ETag was not read from the response", TEST_ETAG, validators.mETag);
+        assertEquals("Error: Last-Modified was not read from the response",
+                TEST_LAST_MODIFIED, validators.mLastModified);
+    }
+
+    public void testValidatorsRoundTrip() throws Exception {
+        insertTestLocation();
+
+        assertNull("Error: A new location should not have validators",
+                ResponseValidators.load(mContext.getContentResolver(), TEST_LOCATION, TEST_DATE));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(new ResponseValidators(TEST_ETAG, TEST_LAST_MODIFIED)
+                .buildSaveOperation(TEST_LOCATION, TEST_DATE));
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        ResponseValidators loaded =
+                ResponseValidators.load(mContext.getContentResolver(), TEST_LOCATION, TEST_DATE);
+        assertNotNull("Error: Validators were not stored for the location", loaded);
+        assertEquals(TEST_ETAG, loaded.mETag);
+        assertEquals(TEST_LAST_MODIFIED, loaded.mLastModified);
+
+        // Forecast days are dated from the day of the download, so yesterday's validators
+        // must not be replayed today.
+        long nextDay = TEST_DATE + 1000 * 60 * 60 * 24;
+        assertNull("Error: Validators from another day should not be reused",
+                ResponseValidators.load(mContext.getContentResolver(), TEST_LOCATION, nextDay));
+    }
+
+    public void testConditionalRequestIsNotModified() throws IOException {
+        HttpURLConnection urlConnection = openConnection();
+        new ResponseValidators(TEST_ETAG, TEST_LAST_MODIFIED).applyTo(urlConnection);
+
+        assertEquals("Error: The replayed ETag should have produced a 304",
+                HttpURLConnection.HTTP_NOT_MODIFIED, urlConnection.getResponseCode());
+        urlConnection.disconnect();
+    }
+}
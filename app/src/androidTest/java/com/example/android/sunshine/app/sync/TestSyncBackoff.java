@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.Random;
+
+public class TestSyncBackoff extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncBackoff.recordSuccess(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncBackoff.recordSuccess(mContext);
+        super.tearDown();
+    }
+
+    public void testDelayGrowsAndIsCapped() {
+        Random random = new Random(42);
+        long previousCeiling = 0;
+        for (int failures = 1; failures <= 40; failures++) {
+            long delay = SyncBackoff.computeDelayMillis(failures, random);
+            long ceiling = Math.min(SyncBackoff.MAX_DELAY_MILLIS,
+                    failures > 12 ? Long.MAX_VALUE : SyncBackoff.BASE_DELAY_MILLIS << (failures - 1));
+
+            assertTrue("Error: Delay " + delay + " after " + failures + " failures is below the jitter window",
+                    delay >= ceiling / 2);
+            assertTrue("Error: Delay " + delay + " after " + failures + " failures is above the cap",
+                    delay <= ceiling);
+            assertTrue("Error: The backoff window shrank after " + failures + " failures",
+                    ceiling >= previousCeiling);
+            previousCeiling = ceiling;
+        }
+    }
+
+    public void testFailureOpensAndSuccessCloses() {
+        assertFalse("Error: The breaker should start out closed", SyncBackoff.isOpen(mContext));
+
+        long openUntil = SyncBackoff.recordFailure(mContext,
+                Utility.getPreferredLocation(mContext));
+        assertTrue("Error: The breaker should be open after a failure", SyncBackoff.isOpen(mContext));
+        assertTrue(openUntil > System.currentTimeMillis());
+
+        SyncBackoff.recordSuccess(mContext);
+        assertFalse("Error: The breaker should close after a success", SyncBackoff.isOpen(mContext));
+    }
+
+    public void testBreakerHoldsBackItsLocationOnly() {
+        SyncBackoff.recordFailure(mContext, "99705");
+
+        assertTrue(SyncBackoff.isOpenFor(mContext, "99705"));
+        assertFalse("Error: A location the user just switched to was held back",
+                SyncBackoff.isOpenFor(mContext, "94043"));
+        assertTrue("Error: Syncing every location should still back off",
+                SyncBackoff.isOpen(mContext));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final long FRESH = 0;
+
+    public void testIntervalFollowsVolatility() {
+        float[] noActivity = new float[24];
+
+        assertEquals("Error: A forecast that keeps changing should sync at the regular interval",
+                SunshineSyncAdapter.SYNC_INTERVAL,
+                SyncScheduler.computeInterval(1f, noActivity, 12, FRESH));
+        assertEquals("Error: A forecast that never changes should sync at the longest interval",
+                SyncScheduler.MAX_INTERVAL,
+                SyncScheduler.computeInterval(0f, noActivity, 12, FRESH));
+
+        int calm = SyncScheduler.computeInterval(0.1f, noActivity, 12, FRESH);
+        int busy = SyncScheduler.computeInterval(0.3f, noActivity, 12, FRESH);
+        assertTrue("Error: More changes should not mean a longer interval", busy <= calm);
+    }
+
+    public void testUpcomingActivityKeepsIntervalShort() {
+        float[] activity = new float[24];
+        activity[7] = 20f;   // mornings
+        activity[22] = 2f;
+
+        assertEquals("Error: The user usually looks soon, the data should not be stretched",
+                SunshineSyncAdapter.SYNC_INTERVAL,
+                SyncScheduler.computeInterval(0f, activity, 5, FRESH));
+        assertEquals("Error: Nothing usually happens in the afternoon, the interval can stretch",
+                SyncScheduler.MAX_INTERVAL,
+                SyncScheduler.computeInterval(0f, activity, 13, FRESH));
+    }
+
+    public void testStaleDataCatchesUp() {
+        long stale = SunshineSyncAdapter.SYNC_INTERVAL * 1000L + 1;
+        assertEquals(SyncScheduler.MIN_INTERVAL,
+                SyncScheduler.computeInterval(0f, new float[24], 12, stale));
+    }
+
+    // Decay follows the time that passed, not how often the app was opened in it
+    public void testActivityDecaysWithTime() {
+        long hour = 60 * 60 * 1000L;
+        float[] once = new float[24];
+        once[7] = 10f;
+        SyncScheduler.decayActivity(once, 6 * hour);
+
+        float[] often = new float[24];
+        often[7] = 10f;
+        for (int i = 0; i < 360; i++) {
+            SyncScheduler.decayActivity(often, hour / 60);
+        }
+        assertEquals(once[7], often[7], 0.01f);
+        assertTrue("Error: Six hours didn't decay the histogram", once[7] < 10f);
+
+        float[] unchanged = new float[24];
+        unchanged[7] = 10f;
+        SyncScheduler.decayActivity(unchanged, -hour);
+        assertEquals("Error: A clock set back decayed the histogram", 10f, unchanged[7]);
+    }
+
+    public void testActivityRoundTrip() {
+        float[] activity = new float[24];
+        activity[3] = 1.5f;
+        activity[23] = 0.25f;
+
+        float[] parsed = SyncScheduler.parseActivity(SyncScheduler.formatActivity(activity));
+        for (int hour = 0; hour < 24; hour++) {
+            assertEquals(activity[hour], parsed[hour]);
+        }
+
+        assertEquals(0f, SyncScheduler.parseActivity("not,a,histogram")[0]);
+    }
+}
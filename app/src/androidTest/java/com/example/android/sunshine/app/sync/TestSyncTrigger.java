@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestSyncTrigger extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncTrigger.reset();
+        SyncBackoff.recordSuccess(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncTrigger.reset();
+        SyncBackoff.recordSuccess(mContext);
+        super.tearDown();
+    }
+
+    public void testBurstIsMerged() {
+        SyncTrigger.PendingSync first = SyncTrigger.requestSync(mContext);
+        for (int i = 0; i < 10; i++) {
+            assertSame("Error: Requests within the window should share one sync",
+                    first, SyncTrigger.requestSync(mContext));
+        }
+        assertFalse(first.isDone());
+    }
+
+    public void testUnrelatedSyncDoesNotComplete() throws InterruptedException {
+        SyncTrigger.PendingSync pendingSync = SyncTrigger.requestSync(mContext);
+
+        // A periodic sync carries no trigger id
+        SyncTrigger.onSyncFinished(mContext, new Bundle());
+        Bundle otherExtras = new Bundle();
+        otherExtras.putLong(SyncTrigger.SYNC_EXTRAS_TRIGGER_ID, pendingSync.mId + 1);
+        SyncTrigger.onSyncFinished(mContext, otherExtras);
+
+        assertFalse("Error: Another sync should not complete the pending one",
+                pendingSync.await(10, TimeUnit.MILLISECONDS));
+    }
+
+    public void testBackoffSkipsSync() throws InterruptedException {
+        Utility.resetLocationStatus(mContext);
+        SyncBackoff.recordFailure(mContext, Utility.getPreferredLocation(mContext));
+
+        SyncTrigger.PendingSync pendingSync = SyncTrigger.requestSync(mContext);
+        assertTrue("Error: No sync should be waited for while backing off",
+                pendingSync.await(0, TimeUnit.MILLISECONDS));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, pendingSync.getLocationStatus());
+        assertEquals("Error: The skipped sync left the location status unknown",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, Utility.getLocationStatus(mContext));
+    }
+
+    // Right after the location preference changes, Utility may still report the old one, so
+    // SettingsActivity passes on the location it was told about
+    public void testNewLocationIsCheckedAgainstBreaker() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        String oldLocation = Utility.getPreferredLocation(mContext);
+        String newLocation = oldLocation + "0";
+        SyncBackoff.recordFailure(mContext, oldLocation);
+
+        prefs.edit().putString(locationKey, newLocation).commit();
+        try {
+            SyncTrigger.PendingSync pendingSync = SyncTrigger.requestSync(mContext,
+                    prefs.getString(locationKey, null));
+            assertFalse("Error: The sync of the new location was checked against the old one",
+                    pendingSync.isDone());
+        } finally {
+            prefs.edit().putString(locationKey, oldLocation).commit();
+        }
+
+        SyncTrigger.reset();
+        assertTrue("Error: The location the breaker opened for wasn't held back",
+                SyncTrigger.requestSync(mContext, oldLocation).isDone());
+    }
+
+    public void testChangedLocationIsNotHeldBack() {
+        SyncBackoff.recordFailure(mContext, Utility.getPreferredLocation(mContext) + "0");
+
+        SyncTrigger.PendingSync pendingSync = SyncTrigger.requestSync(mContext);
+        assertFalse("Error: The sync of a newly picked location was skipped", pendingSync.isDone());
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/*
+    Runs the download and decode half of the sync against FakeWeatherServer.  The benchmark
+    methods only log their timings; they fail only if the pipeline itself breaks.
+ */
+public class TestWeatherSource extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherSource.class.getSimpleName();
+
+    private static final String TEST_LOCATION = "99705";
+
+    private FakeWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mServer = new FakeWeatherServer();
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mSyncAdapter.setWeatherSource(mServer.getWeatherSource());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testSyntheticForecastIsDecoded() {
+        mServer.setDayCount(14);
+
+        ForecastResult result = mSyncAdapter.fetchForecast(TEST_LOCATION,
+                SunshineSyncAdapter.UNKNOWN_LOCATION_ID);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.mStatus);
+        assertEquals("Error: Not every day of the forecast was decoded",
+                14, result.mWeatherValues.size());
+        // The location isn't stored yet, so it comes back to be added along with the days
+        assertNotNull(result.mLocationValues);
+        assertNull(result.mWeatherValues.get(0)
+                .getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    // The server usually sends humidity as a whole number, but not always
+    public void testFractionalHumidityIsDecoded() {
+        mServer.setPayload("{\"city\":{\"id\":5879400,\"name\":\"North Pole\"," +
+                "\"coord\":{\"lon\":-147.353,\"lat\":64.7488},\"country\":\"US\"}," +
+                "\"cod\":\"200\",\"message\":0.0032,\"cnt\":1,\"list\":[" +
+                "{\"dt\":1419033600,\"temp\":{\"day\":-12.5,\"min\":-13,\"max\":-12," +
+                "\"night\":-13,\"eve\":-12.5,\"morn\":-13},\"pressure\":1001.2," +
+                "\"humidity\":81.6,\"weather\":[{\"id\":600,\"main\":\"Snow\"," +
+                "\"description\":\"light snow\",\"icon\":\"13d\"}],\"speed\":3.1," +
+                "\"deg\":270,\"clouds\":90}]}");
+
+        ForecastResult result = mSyncAdapter.fetchForecast(TEST_LOCATION,
+                SunshineSyncAdapter.UNKNOWN_LOCATION_ID);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.mStatus);
+        assertEquals(1, result.mWeatherValues.size());
+        assertEquals(81, result.mWeatherValues.get(0)
+                .getAsInteger(WeatherContract.WeatherEntry.COLUMN_HUMIDITY).intValue());
+    }
+
+    // Syncing every location: the ones the server answers for are written, and the one it
+    // fails for keeps what it had
+    public void testAllLocationsSyncIsolatesFailure() {
+        SyncBackoff.recordSuccess(mContext);
+        String failingLocation = Utility.getPreferredLocation(mContext);
+        String[] workingLocations = new String[]{failingLocation + "1", failingLocation + "2"};
+        long failingLocationId = insertLocation(failingLocation);
+        long[] workingLocationIds = new long[]{insertLocation(workingLocations[0]),
+                insertLocation(workingLocations[1])};
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] storedDays = new ContentValues[3];
+        for (int i = 0; i < storedDays.length; i++) {
+            storedDays[i] = createWeatherValues(failingLocationId, today + i * 24 * 60 * 60 * 1000L);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                storedDays);
+
+        mServer.setDayCount(14);
+        mServer.setFailingLocation(failingLocation);
+        Bundle extras = new Bundle();
+        extras.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, true);
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, extras, WeatherContract.CONTENT_AUTHORITY, null,
+                syncResult);
+
+        for (long locationId : workingLocationIds) {
+            Cursor cursor = queryDays(locationId);
+            assertEquals("Error: A location the server answered for wasn't written",
+                    14, cursor.getCount());
+            cursor.close();
+        }
+        Cursor cursor = queryDays(failingLocationId);
+        assertEquals("Error: The failed location lost its stored days", 3, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals("Error: The failed location's days were overwritten", "Asteroids",
+                    cursor.getString(0));
+        }
+        cursor.close();
+
+        assertTrue(syncResult.stats.numIoExceptions > 0);
+        assertEquals("Error: The status should describe the preferred location",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+        assertFalse("Error: The locations that synced show the server is up",
+                SyncBackoff.isOpen(mContext));
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        return ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues));
+    }
+
+    private static ContentValues createWeatherValues(long locationId, long date) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
+        return weatherValues;
+    }
+
+    private Cursor queryDays(long locationId) {
+        return mContext.getContentResolver().query(WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_SHORT_DESC},
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null);
+    }
+
+    public void testHourlyForecastIsDecoded() {
+        mServer.setPayload("{\"cod\":\"200\",\"message\":0.0032,\"cnt\":2,\"list\":[" +
+                "{\"dt\":1419033600,\"main\":{\"temp\":-12.5,\"temp_min\":-13,\"temp_max\":-12," +
+                "\"pressure\":1001.2,\"humidity\":81},\"weather\":[{\"id\":600,\"main\":\"Snow\"}]," +
+                "\"wind\":{\"speed\":3.1,\"deg\":270}}," +
+                "{\"dt\":1419044400,\"main\":{\"temp\":-14,\"temp_min\":-14,\"temp_max\":-14," +
+                "\"pressure\":1002,\"humidity\":79},\"weather\":[{\"id\":800,\"main\":\"Clear\"}]," +
+                "\"wind\":{\"speed\":2,\"deg\":255.5}}]," +
+                "\"city\":{\"name\":\"North Pole\",\"coord\":{\"lat\":64.7488,\"lon\":-147.353}}}");
+
+        ForecastResult result = new ForecastResult(TEST_LOCATION);
+        mSyncAdapter.fetchHourlyForecast(result);
+
+        assertEquals("Error: Not every hourly point was decoded", 2, result.mHourlyValues.size());
+        ContentValues point = result.mHourlyValues.get(1);
+        assertEquals(1419044400000L,
+                point.getAsLong(WeatherContract.HourlyEntry.COLUMN_TIME).longValue());
+        assertEquals(800, point.getAsInteger(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID).intValue());
+        assertEquals(-14.0, point.getAsDouble(WeatherContract.HourlyEntry.COLUMN_TEMP));
+        assertEquals(255.5, point.getAsDouble(WeatherContract.HourlyEntry.COLUMN_DEGREES));
+        assertNull(point.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY));
+
+        // A broken hourly forecast is left out, without failing anything
+        mServer.setDayCount(14);
+        result = new ForecastResult(TEST_LOCATION);
+        mSyncAdapter.fetchHourlyForecast(result);
+        assertTrue(result.mHourlyValues.isEmpty());
+    }
+
+    public void testErrorResponses() {
+        mServer.setPayload("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                mSyncAdapter.fetchForecast(TEST_LOCATION, SunshineSyncAdapter.UNKNOWN_LOCATION_ID).mStatus);
+
+        mServer.setPayload("{\"city\": ");
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                mSyncAdapter.fetchForecast(TEST_LOCATION, SunshineSyncAdapter.UNKNOWN_LOCATION_ID).mStatus);
+    }
+
+    public void testFetchBenchmark() {
+        final int rounds = 20;
+        for (int dayCount : new int[]{14, 500, 10000}) {
+            mServer.setDayCount(dayCount);
+            // Warm up, so the first round doesn't pay for it
+            mSyncAdapter.fetchForecast(TEST_LOCATION, SunshineSyncAdapter.UNKNOWN_LOCATION_ID);
+
+            long start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < rounds; i++) {
+                ForecastResult result = mSyncAdapter.fetchForecast(TEST_LOCATION,
+                        SunshineSyncAdapter.UNKNOWN_LOCATION_ID);
+                assertEquals(dayCount, result.mWeatherValues.size());
+            }
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            Log.i(LOG_TAG, "Fetched " + dayCount + " days (" + mServer.getPayloadSize() + " bytes) in "
+                    + (elapsed / rounds) + "ms on average");
+        }
+    }
+
+    public void testLatencyBenchmark() {
+        final long latencyMillis = 200;
+        mServer.setLatencyMillis(latencyMillis);
+
+        long start = SystemClock.elapsedRealtime();
+        ForecastResult result = mSyncAdapter.fetchForecast(TEST_LOCATION,
+                SunshineSyncAdapter.UNKNOWN_LOCATION_ID);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.mStatus);
+        assertTrue("Error: The configured latency was not applied", elapsed >= latencyMillis);
+        Log.i(LOG_TAG, "Fetch with " + latencyMillis + "ms server latency took " + elapsed + "ms");
+    }
+}
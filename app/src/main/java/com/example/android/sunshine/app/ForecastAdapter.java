@@ -45,10 +45,31 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    // The rows the list shows, as of the last swapCursor, and the day they were shown on
+    private ForecastListDiff.Snapshot mSnapshot = ForecastListDiff.Snapshot.EMPTY;
+    private long mSnapshotDay;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    final private ForecastImagePrefetcher mImagePrefetcher;
+
+    private final ForecastListDiff.Callback mListUpdateCallback = new ForecastListDiff.Callback() {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            notifyItemRangeChanged(position, count);
+        }
+    };
 
     /**
      * Cache of the children views for a forecast list item.
@@ -73,9 +94,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mSnapshot.getDate(adapterPosition), this);
             mICM.onClick(this);
         }
     }
@@ -88,8 +107,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Rows are known by their date.  This has to be set before ItemChoiceManager starts
+        // observing us.
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
+        mImagePrefetcher = new ForecastImagePrefetcher(context);
     }
 
     /*
@@ -124,63 +147,54 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        // Everything was worked out when the load came in, see ForecastRow
+        ForecastRow row = mSnapshot.mRows[position];
+        boolean todayLayout = getItemViewType(position) == VIEW_TYPE_TODAY;
         int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+        String dayString;
+
+        if (todayLayout) {
+            defaultImage = row.mArtResourceId;
+            dayString = row.mLongDayString;
+        } else {
+            defaultImage = row.mIconResourceId;
+            dayString = row.mDayString;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( row.mArtUrl == null ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
+            // Loaded at a fixed size, the one ForecastImagePrefetcher fetched it at when the data
+            // came in, so it's usually already in memory
+            int size = mImagePrefetcher.getIconSize(todayLayout);
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(row.mArtUrl)
+                    .override(size, size)
+                    .fitCenter()
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
         }
 
         // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
+        // the animator can use this to re-find the original view.  Named by date, since rows
+        // that only moved position aren't bound again.
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + row.mDate);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        forecastAdapterViewHolder.mDateView.setText(dayString);
 
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
-
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.mDescription);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.mDescriptionContentDescription);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.mHighString);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.mHighContentDescription);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.mLowString);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.mLowContentDescription);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -206,15 +220,44 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
     }
 
+    @Override
+    public long getItemId(int position) {
+        return mSnapshot.getDate(position);
+    }
+
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mSnapshot.size();
     }
 
+    /**
+     * Shows a new load of the forecast.  Only the days that were added, dropped or changed since
+     * the last one are bound again, so a sync doesn't reload every icon or interrupt scrolling.
+     * Cursors from ForecastLoader come with their rows built; any other has them built here.
+     */
     public void swapCursor(Cursor newCursor) {
+        ForecastListDiff.Snapshot oldSnapshot = mSnapshot;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        if (newCursor instanceof ForecastLoader.RowsCursor
+                && ((ForecastLoader.RowsCursor) newCursor).mRowsDay == today) {
+            mSnapshot = new ForecastListDiff.Snapshot(((ForecastLoader.RowsCursor) newCursor).mRows);
+        } else {
+            mSnapshot = new ForecastListDiff.Snapshot(ForecastRow.fromCursor(mContext, newCursor));
+        }
         mCursor = newCursor;
-        notifyDataSetChanged();
+        // Before any row is bound, so they find their images loading or loaded
+        mImagePrefetcher.prefetch(mSnapshot.mRows, mUseTodayLayout);
+        if (today != mSnapshotDay
+                || !ForecastListDiff.dispatch(oldSnapshot, mSnapshot, mListUpdateCallback)) {
+            // Every row's "Today", "Tomorrow" or weekday label has moved on
+            notifyDataSetChanged();
+        } else if (mUseTodayLayout && oldSnapshot.size() > 0 && mSnapshot.size() > 0
+                && oldSnapshot.getDate(0) != mSnapshot.getDate(0)) {
+            // A different day is on top, and the one that was may still be further down, so
+            // both need binding with their new layouts
+            notifyItemRangeChanged(0, Math.min(2, mSnapshot.size()));
+        }
+        mSnapshotDay = today;
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads the art pack images a forecast load will show as soon as it arrives, and holds on to
+ * them, so rows find theirs already decoded in memory when they're bound instead of popping in
+ * as the list is first scrolled.
+ * <p/>
+ * Each image is loaded at the size its row asks for, see ForecastAdapter.onBindViewHolder,
+ * since that is part of what Glide caches it under.  A load only ever needs the few images of its kinds of
+ * weather, so all of them are kept until a load no longer needs them.  The requests belong to
+ * the activity, so Glide lets go of them along with it.
+ */
+class ForecastImagePrefetcher {
+
+    private final Context mContext;
+    private final int mTodayIconSize;
+    private final int mIconSize;
+    // The images held, by size and url
+    private final Map<String, SimpleTarget<GlideDrawable>> mTargets =
+            new HashMap<String, SimpleTarget<GlideDrawable>>();
+
+    ForecastImagePrefetcher(Context context) {
+        mContext = context;
+        mTodayIconSize = context.getResources().getDimensionPixelSize(R.dimen.today_icon);
+        mIconSize = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+    }
+
+    /**
+     * @return the size the icon of a row is loaded at, in pixels, square.
+     */
+    int getIconSize(boolean todayLayout) {
+        return todayLayout ? mTodayIconSize : mIconSize;
+    }
+
+    /**
+     * Starts loading the images of these rows that aren't held yet, and lets go of those the
+     * rows no longer show.
+     */
+    void prefetch(ForecastRow[] rows, boolean useTodayLayout) {
+        Map<String, SimpleTarget<GlideDrawable>> previous =
+                new HashMap<String, SimpleTarget<GlideDrawable>>(mTargets);
+        mTargets.clear();
+        for (int i = 0; i < rows.length; i++) {
+            String url = rows[i].mArtUrl;
+            if (url == null) {
+                continue;
+            }
+            int size = getIconSize(i == 0 && useTodayLayout);
+            String key = size + " " + url;
+            if (mTargets.containsKey(key)) {
+                continue;
+            }
+            SimpleTarget<GlideDrawable> target = previous.remove(key);
+            if (target == null) {
+                target = new SimpleTarget<GlideDrawable>(size, size) {
+                    @Override
+                    public void onResourceReady(GlideDrawable resource,
+                                                GlideAnimation<? super GlideDrawable> animation) {
+                        // Holding the request is what keeps the image in memory
+                    }
+                };
+                // Same transformation as the row's own load, or it wouldn't share the image
+                Glide.with(mContext).load(url).fitCenter().into(target);
+            }
+            mTargets.put(key, target);
+        }
+
+        for (SimpleTarget<GlideDrawable> unused : previous.values()) {
+            Glide.clear(unused);
+        }
+    }
+}
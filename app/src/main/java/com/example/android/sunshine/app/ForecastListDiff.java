@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+/**
+ * Works out what changed between two loads of the forecast list, so ForecastAdapter can tell
+ * RecyclerView about just those rows instead of rebinding all of them.
+ * <p/>
+ * Rows are matched by date.  The list is sorted by date and has one row per day, so the two
+ * loads can be walked side by side in one pass, and a day can be added, dropped or changed but
+ * never moved.  A row counts as changed if anything the list shows of it did, see
+ * ForecastRow.sameContents.
+ */
+class ForecastListDiff {
+
+    /**
+     * Receives the changes, in the order they have to be applied.  Positions are in the list as
+     * it stands after the changes before them.
+     */
+    interface Callback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    /**
+     * The rows of one load.  The loader closes a cursor once it has handed over the next one, so
+     * this is what is kept of the old load.
+     */
+    static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(ForecastRow.EMPTY);
+
+        final ForecastRow[] mRows;
+
+        Snapshot(ForecastRow[] rows) {
+            mRows = rows;
+        }
+
+        int size() {
+            return mRows.length;
+        }
+
+        long getDate(int position) {
+            return mRows[position].mDate;
+        }
+
+        boolean isSorted() {
+            for (int i = 1; i < mRows.length; i++) {
+                if (mRows[i].mDate <= mRows[i - 1].mDate) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // The run of changes of one kind not yet handed to the callback
+    private static final int NONE = 0;
+    private static final int INSERTED = 1;
+    private static final int REMOVED = 2;
+    private static final int CHANGED = 3;
+
+    private final Callback mCallback;
+    private int mPendingType = NONE;
+    private int mPendingPosition;
+    private int mPendingCount;
+
+    private ForecastListDiff(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Hands the changes from oldRows to newRows to the callback.
+     *
+     * @return false, having called nothing, if either load isn't in date order; the caller has
+     * to treat the whole list as changed then.
+     */
+    static boolean dispatch(Snapshot oldRows, Snapshot newRows, Callback callback) {
+        if (!oldRows.isSorted() || !newRows.isSorted()) {
+            return false;
+        }
+
+        ForecastListDiff diff = new ForecastListDiff(callback);
+        int oldIndex = 0;
+        int newIndex = 0;
+        // Where we are in the list as it's being changed
+        int position = 0;
+        while (oldIndex < oldRows.size() || newIndex < newRows.size()) {
+            if (newIndex == newRows.size() || (oldIndex < oldRows.size()
+                    && oldRows.getDate(oldIndex) < newRows.getDate(newIndex))) {
+                diff.add(REMOVED, position);
+                oldIndex++;
+            } else if (oldIndex == oldRows.size()
+                    || oldRows.getDate(oldIndex) > newRows.getDate(newIndex)) {
+                diff.add(INSERTED, position);
+                newIndex++;
+                position++;
+            } else {
+                if (!oldRows.mRows[oldIndex].sameContents(newRows.mRows[newIndex])) {
+                    diff.add(CHANGED, position);
+                }
+                oldIndex++;
+                newIndex++;
+                position++;
+            }
+        }
+        diff.flush();
+        return true;
+    }
+
+    private void add(int type, int position) {
+        // Removals of a run all happen at the same position, the others at consecutive ones
+        int runEnd = type == REMOVED ? mPendingPosition : mPendingPosition + mPendingCount;
+        if (type == mPendingType && position == runEnd) {
+            mPendingCount++;
+            return;
+        }
+        flush();
+        mPendingType = type;
+        mPendingPosition = position;
+        mPendingCount = 1;
+    }
+
+    private void flush() {
+        switch (mPendingType) {
+            case INSERTED:
+                mCallback.onInserted(mPendingPosition, mPendingCount);
+                break;
+            case REMOVED:
+                mCallback.onRemoved(mPendingPosition, mPendingCount);
+                break;
+            case CHANGED:
+                mCallback.onChanged(mPendingPosition, mPendingCount);
+                break;
+        }
+        mPendingType = NONE;
+    }
+}
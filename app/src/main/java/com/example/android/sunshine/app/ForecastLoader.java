@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Loads the forecast list, and builds its ForecastRows on the loader's thread while it's at it,
+ * so the main thread doesn't have to.
+ */
+class ForecastLoader extends CursorLoader {
+
+    /**
+     * The loaded cursor, along with the rows built from it.
+     */
+    static class RowsCursor extends CursorWrapper {
+        final ForecastRow[] mRows;
+        // The day, as WeatherContract.normalizeDate gives it, the rows were built on
+        final long mRowsDay;
+
+        RowsCursor(Cursor cursor, ForecastRow[] rows, long rowsDay) {
+            super(cursor);
+            mRows = rows;
+            mRowsDay = rowsDay;
+        }
+    }
+
+    ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        // Taken first, so rows that straddle midnight count as the earlier day's
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        return new RowsCursor(cursor, ForecastRow.fromCursor(getContext(), cursor), today);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+/**
+ * Everything one row of the forecast list shows, worked out ahead of time so that binding the
+ * row only has to hand prepared strings and resource ids to its views.  Rows are built for a
+ * whole load at once, off the main thread by ForecastLoader, and never change afterwards.
+ * <p/>
+ * The day labels are relative to the day the rows were built on, and the temperatures are in
+ * the units chosen then; rows built on an earlier day have to be built again.
+ */
+class ForecastRow {
+
+    static final ForecastRow[] EMPTY = new ForecastRow[0];
+
+    final long mDate;
+    // For the "today" layout, and for the others
+    final int mArtResourceId;
+    final int mIconResourceId;
+    // The artwork to load from the network, or null when using the local graphics
+    final String mArtUrl;
+    // The label for the "today" layout, and for the others
+    final String mLongDayString;
+    final String mDayString;
+    final String mDescription;
+    final String mDescriptionContentDescription;
+    final String mHighString;
+    final String mHighContentDescription;
+    final String mLowString;
+    final String mLowContentDescription;
+
+    private ForecastRow(Context context, Cursor cursor, boolean usingLocalGraphics) {
+        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        mDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        mArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        mIconResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+        mArtUrl = usingLocalGraphics ? null
+                : Utility.getArtUrlForWeatherCondition(context, weatherId);
+        mLongDayString = Utility.getFriendlyDayString(context, mDate, true);
+        mDayString = Utility.getFriendlyDayString(context, mDate, false);
+        mDescription = Utility.getStringForWeatherCondition(context, weatherId);
+        mDescriptionContentDescription = context.getString(R.string.a11y_forecast, mDescription);
+        mHighString = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        mHighContentDescription = context.getString(R.string.a11y_high_temp, mHighString);
+        mLowString = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        mLowContentDescription = context.getString(R.string.a11y_low_temp, mLowString);
+    }
+
+    /**
+     * Builds the rows of a cursor with the ForecastFragment columns, leaving its position where
+     * it was.
+     */
+    static ForecastRow[] fromCursor(Context context, Cursor cursor) {
+        if (cursor == null) {
+            return EMPTY;
+        }
+        boolean usingLocalGraphics = Utility.usingLocalGraphics(context);
+        int position = cursor.getPosition();
+        ForecastRow[] rows = new ForecastRow[cursor.getCount()];
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            rows[i] = new ForecastRow(context, cursor, usingLocalGraphics);
+        }
+        cursor.moveToPosition(position);
+        return rows;
+    }
+
+    /**
+     * @return whether the two rows would look the same on screen.
+     */
+    boolean sameContents(ForecastRow other) {
+        return mDate == other.mDate
+                && mArtResourceId == other.mArtResourceId
+                && mIconResourceId == other.mIconResourceId
+                && TextUtils.equals(mArtUrl, other.mArtUrl)
+                && TextUtils.equals(mLongDayString, other.mLongDayString)
+                && TextUtils.equals(mDayString, other.mDayString)
+                && TextUtils.equals(mDescription, other.mDescription)
+                && TextUtils.equals(mHighString, other.mHighString)
+                && TextUtils.equals(mLowString, other.mLowString);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Builds the day labels behind Utility's getFriendlyDayString, getFullFriendlyDayString,
+ * getDayName and getFormattedMonthDay.  A label only depends on the day, so each one is
+ * formatted once and remembered; asking again, which every list row, widget and notification
+ * does, allocates nothing.
+ * <p/>
+ * A formatter is good for one day in one locale and time zone, since "Today" and "Tomorrow"
+ * move with the clock.  get() hands out a new one, with nothing remembered, once any of those
+ * changed.  Days are counted from the epoch in local time, the way Time.getJulianDay counts
+ * them.
+ */
+final class FriendlyDateFormatter {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The kinds of label, each remembered separately
+    private static final int FRIENDLY = 0;
+    private static final int LONG_FRIENDLY = 1;
+    private static final int FULL_FRIENDLY = 2;
+    private static final int DAY_NAME = 3;
+    private static final int MONTH_DAY = 4;
+    private static final int KIND_COUNT = 5;
+
+    private static volatile FriendlyDateFormatter sCurrent;
+
+    private final Locale mLocale;
+    private final TimeZone mTimeZone;
+    // The day this formatter is for, and when it starts and the next one does
+    private final long mToday;
+    private final long mTodayStart;
+    private final long mTomorrowStart;
+    private final String mTodayLabel;
+    private final String mTomorrowLabel;
+    private final String mFullFriendlyFormat;
+
+    // The rest is guarded by this
+    private final SimpleDateFormat mDayNameFormat;
+    private final SimpleDateFormat mShortDateFormat;
+    private final SimpleDateFormat mMonthDayFormat;
+    private final Date mDate = new Date();
+    private final SparseArray<String>[] mLabels;
+
+    @SuppressWarnings("unchecked")
+    private FriendlyDateFormatter(Context context, long now, Locale locale, TimeZone timeZone) {
+        mLocale = locale;
+        mTimeZone = timeZone;
+        mToday = getDay(now);
+        mTodayStart = WeatherContract.normalizeDate(now, timeZone);
+        // Half a day into tomorrow, so days of 23 or 25 hours come out right
+        mTomorrowStart = WeatherContract.normalizeDate(
+                mTodayStart + DAY_IN_MILLIS + DAY_IN_MILLIS / 2, timeZone);
+        mTodayLabel = context.getString(R.string.today);
+        mTomorrowLabel = context.getString(R.string.tomorrow);
+        mFullFriendlyFormat = context.getString(R.string.format_full_friendly_date);
+
+        mDayNameFormat = createFormat("EEEE");
+        mShortDateFormat = createFormat("EEE MMM dd");
+        mMonthDayFormat = createFormat("MMMM dd");
+        mLabels = new SparseArray[KIND_COUNT];
+        for (int i = 0; i < KIND_COUNT; i++) {
+            mLabels[i] = new SparseArray<String>();
+        }
+    }
+
+    private SimpleDateFormat createFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, mLocale);
+        format.setTimeZone(mTimeZone);
+        return format;
+    }
+
+    /**
+     * @return the formatter for the current day, locale and time zone.
+     */
+    static FriendlyDateFormatter get(Context context) {
+        long now = System.currentTimeMillis();
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = WeatherContract.getTimeZone();
+        FriendlyDateFormatter current = sCurrent;
+        if (current == null || now < current.mTodayStart || now >= current.mTomorrowStart
+                || current.mLocale != locale || current.mTimeZone != timeZone) {
+            // Two threads may both get here; either formatter will do
+            current = new FriendlyDateFormatter(context, now, locale, timeZone);
+            sCurrent = current;
+        }
+        return current;
+    }
+
+    private long getDay(long date) {
+        return (date + mTimeZone.getOffset(date)) / DAY_IN_MILLIS;
+    }
+
+    /**
+     * "Today, June 24" (with longToday), "Tomorrow", "Wednesday" up to a week ahead, then
+     * "Mon Jun 03".
+     */
+    String getFriendlyDayString(long date, boolean longToday) {
+        long day = getDay(date);
+        return getLabel(longToday && day == mToday ? LONG_FRIENDLY : FRIENDLY, day, date);
+    }
+
+    /**
+     * "Today, June 24", "Tomorrow, June 25", "Wednesday, June 26".
+     */
+    String getFullFriendlyDayString(long date) {
+        return getLabel(FULL_FRIENDLY, getDay(date), date);
+    }
+
+    /**
+     * "Today", "Tomorrow", then the name of the day.
+     */
+    String getDayName(long date) {
+        return getLabel(DAY_NAME, getDay(date), date);
+    }
+
+    /**
+     * "June 24".
+     */
+    String getFormattedMonthDay(long date) {
+        return getLabel(MONTH_DAY, getDay(date), date);
+    }
+
+    private synchronized String getLabel(int kind, long day, long date) {
+        // Epoch days fit an int until the year 5 million or so
+        String label = mLabels[kind].get((int) day);
+        if (label == null) {
+            label = formatLabel(kind, day, date);
+            mLabels[kind].put((int) day, label);
+        }
+        return label;
+    }
+
+    private String formatLabel(int kind, long day, long date) {
+        switch (kind) {
+            case FRIENDLY:
+                if (day < mToday + 7) {
+                    return getLabel(DAY_NAME, day, date);
+                }
+                return format(mShortDateFormat, date);
+            case LONG_FRIENDLY:
+                return String.format(mFullFriendlyFormat, mTodayLabel,
+                        getLabel(MONTH_DAY, day, date));
+            case FULL_FRIENDLY:
+                return String.format(mFullFriendlyFormat, getLabel(DAY_NAME, day, date),
+                        getLabel(MONTH_DAY, day, date));
+            case DAY_NAME:
+                if (day == mToday) {
+                    return mTodayLabel;
+                } else if (day == mToday + 1) {
+                    return mTomorrowLabel;
+                }
+                return format(mDayNameFormat, date);
+            case MONTH_DAY:
+                return format(mMonthDayFormat, date);
+            default:
+                throw new IllegalArgumentException("Unknown label kind " + kind);
+        }
+    }
+
+    private String format(SimpleDateFormat format, long date) {
+        mDate.setTime(date);
+        return format.format(mDate);
+    }
+}
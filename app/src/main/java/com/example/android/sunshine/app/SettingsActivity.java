@@ -135,7 +135,9 @@ public class SettingsActivity extends PreferenceActivity
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            // Utility may not have heard of the change yet, so hand the new location on
+            SunshineSyncAdapter.syncImmediately(this, sharedPreferences.getString(key,
+                    getString(R.string.pref_location_default)));
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.Locale;
+
+/**
+ * The user's settings as of their last change, for Utility to answer from.  Those lookups run
+ * for every forecast row, widget and notification; this way they read a field instead of going
+ * through SharedPreferences and the resources each time.
+ * <p/>
+ * A snapshot never changes.  A preference listener builds a new one on every change and swaps
+ * it in, so readers need no lock and never see a mix of old and new settings.  The listener
+ * runs on the main thread, straight away for changes made there, shortly after for changes
+ * made elsewhere.
+ */
+final class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sCurrent;
+    // Guards building and swapping snapshots, not reading them
+    private static final Object sLock = new Object();
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    final String mLocation;
+    final boolean mMetric;
+    final boolean mUsingLocalGraphics;
+    // The art pack's url for each WeatherConditions kind, null for UNKNOWN
+    final String[] mArtUrls;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        mLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        String metric = context.getString(R.string.pref_units_metric);
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        String artUrlFormat = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        mUsingLocalGraphics = artUrlFormat.equals(sunshineArtPack);
+        mArtUrls = new String[WeatherConditions.KIND_COUNT];
+        for (int kind = 0; kind < WeatherConditions.KIND_COUNT; kind++) {
+            String artName = WeatherConditions.ART_NAMES[kind];
+            if (artName != null) {
+                mArtUrls[kind] = String.format(Locale.US, artUrlFormat, artName);
+            }
+        }
+    }
+
+    static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        if (current != null) {
+            return current;
+        }
+        synchronized (sLock) {
+            if (sCurrent == null) {
+                final Context appContext = context.getApplicationContext();
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        // Any key will do; building one is cheaper than working out whether
+                        // it's one of ours
+                        synchronized (sLock) {
+                            sCurrent = new SettingsSnapshot(appContext, sharedPreferences);
+                        }
+                    }
+                };
+                // Listen first, so a change made while we read is picked up afterwards
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+                sCurrent = new SettingsSnapshot(appContext, prefs);
+            }
+            return sCurrent;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide map from location setting to the _id of its row in the location table, so weather
+ * queries can filter on weather.location_id instead of joining location to match the setting.
+ * It also maps back, so the provider can name the weather uris of the rows it writes.
+ * <p/>
+ * Only WeatherProvider fills it, and it drops entries whenever the location table changes.
+ * Settings that have no row yet are not remembered, so a location added behind the provider's
+ * back is still found on the next lookup.
+ */
+public class LocationIdCache {
+
+    public static final long UNKNOWN = -1;
+
+    private static final Map<String, Long> sLocationIds = new HashMap<String, Long>();
+    // The same entries the other way round, guarded by sLocationIds too
+    private static final Map<Long, String> sLocationSettings = new HashMap<Long, String>();
+
+    private LocationIdCache() {
+    }
+
+    /**
+     * @return the cached _id of the location, or UNKNOWN.
+     */
+    public static long get(String locationSetting) {
+        synchronized (sLocationIds) {
+            Long locationId = sLocationIds.get(locationSetting);
+            return locationId != null ? locationId : UNKNOWN;
+        }
+    }
+
+    /**
+     * @return the cached setting of the location with this _id, or null.
+     */
+    static String getLocationSetting(long locationId) {
+        synchronized (sLocationIds) {
+            return sLocationSettings.get(locationId);
+        }
+    }
+
+    static void put(String locationSetting, long locationId) {
+        synchronized (sLocationIds) {
+            sLocationIds.put(locationSetting, locationId);
+            sLocationSettings.put(locationId, locationSetting);
+        }
+    }
+
+    /**
+     * Forgets every location.  Called when location rows are updated or deleted, since we can't
+     * tell which settings those touched.
+     */
+    static void clear() {
+        synchronized (sLocationIds) {
+            sLocationIds.clear();
+            sLocationSettings.clear();
+        }
+    }
+}
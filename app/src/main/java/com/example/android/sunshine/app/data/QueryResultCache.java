@@ -0,0 +1,223 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, least recently used cache of query results for WeatherProvider.  After a sync, the
+ * widgets, Muzei, the notification and the loaders all ask for the same few forecasts within
+ * seconds of each other; only the first of them has to go to the database.
+ * <p/>
+ * Results are held as copies of their rows.  Every hit gets its own read-only cursor over those
+ * rows, so callers can move, close or hold on to it as they like.  Each entry remembers the
+ * location it was read for, and the provider drops entries as it writes: just that location's
+ * when it knows which rows changed, all of them when it doesn't.  A change to the location row
+ * itself only reaches the entries that read one of its changed columns.
+ * <p/>
+ * A query that was already running when its data changed must not put its now stale result in
+ * the cache, so callers take getGeneration() before querying and hand it to put().
+ */
+class QueryResultCache {
+
+    static final int MAX_ENTRIES = 32;
+    // Larger results aren't worth the memory, and aren't what gets asked for over and over
+    static final int MAX_ROWS = 200;
+
+    private final int mMaxEntries;
+    private final int mMaxRows;
+    private final LinkedHashMap<String, Entry> mEntries;
+    // Bumped by every invalidation
+    private long mGeneration;
+    private long mHitCount;
+    private long mMissCount;
+
+    private static class Entry {
+        final long mLocationId;
+        final String[] mColumnNames;
+        final Object[][] mRows;
+
+        Entry(long locationId, String[] columnNames, Object[][] rows) {
+            mLocationId = locationId;
+            mColumnNames = columnNames;
+            mRows = rows;
+        }
+    }
+
+    QueryResultCache() {
+        this(MAX_ENTRIES, MAX_ROWS);
+    }
+
+    QueryResultCache(int maxEntries, int maxRows) {
+        mMaxEntries = maxEntries;
+        mMaxRows = maxRows;
+        // Access order, so the eldest entry is the least recently used one
+        mEntries = new LinkedHashMap<String, Entry>(maxEntries * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the key for a query.  The uri should already be normalized, so that different
+     * spellings of the same query share an entry.
+     */
+    static String buildKey(String normalizedUri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder(normalizedUri);
+        // Separate the parts with a character that doesn't appear in any of them
+        key.append('\u0000');
+        if (projection != null) {
+            for (String column : projection) {
+                key.append(column).append(',');
+            }
+        } else {
+            key.append('*');
+        }
+        key.append('\u0000').append(selection);
+        if (selectionArgs != null) {
+            for (String selectionArg : selectionArgs) {
+                key.append('\u0000').append(selectionArg);
+            }
+        }
+        key.append('\u0000').append(sortOrder);
+        return key.toString();
+    }
+
+    /**
+     * @return a new cursor over the cached result, or null if there is none.
+     */
+    synchronized Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return newCursor(entry);
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches the result of a query, unless it's too large or the data changed since generation
+     * was taken.
+     *
+     * @return the cursor to hand to the caller in place of the one passed in, which may have
+     * been read to the end and closed.
+     */
+    Cursor put(String key, long locationId, long generation, Cursor cursor) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+                || cursor.getCount() > mMaxRows) {
+            // Too big to keep, or, before Honeycomb, no way to copy the values with their types
+            return cursor;
+        }
+
+        Entry entry = snapshot(locationId, cursor);
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mEntries.put(key, entry);
+            }
+        }
+        // The copy we just made is as good as a cache hit
+        return newCursor(entry);
+    }
+
+    private static Cursor newCursor(Entry entry) {
+        MatrixCursor cursor = new MatrixCursor(entry.mColumnNames, entry.mRows.length);
+        for (Object[] row : entry.mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Entry snapshot(long locationId, Cursor cursor) {
+        String[] columnNames = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            Object[] row = new Object[columnNames.length];
+            for (int column = 0; column < columnNames.length; column++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[column] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[column] = cursor.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[column] = cursor.getString(column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[column] = cursor.getBlob(column);
+                        break;
+                    default:
+                        row[column] = null;
+                        break;
+                }
+            }
+            rows[i] = row;
+        }
+        return new Entry(locationId, columnNames, rows);
+    }
+
+    /**
+     * Drops the results read for one location.
+     */
+    synchronized void invalidateLocation(long locationId) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().mLocationId == locationId) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the results read for one location that include any of the given columns, such as
+     * those that joined in a location row that has since changed.
+     */
+    synchronized void invalidateColumns(long locationId, Collection<String> columns) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.mLocationId == locationId
+                    && !Collections.disjoint(Arrays.asList(entry.mColumnNames), columns)) {
+                entries.remove();
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+}
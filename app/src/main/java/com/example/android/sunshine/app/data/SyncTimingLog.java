@@ -0,0 +1,145 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncTimingEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fixed-size ring buffer of sync stage timings.  The sync adapter records into it as it goes,
+ * and WeatherProvider serves it through SyncTimingEntry.  Once CAPACITY samples have been
+ * recorded, each new one overwrites the oldest, so the memory used never grows.
+ * <p/>
+ * The samples live in the app process and are lost with it.  That is fine for what they are
+ * for: finding out where the time of recent syncs went.
+ */
+public class SyncTimingLog {
+
+    static final int CAPACITY = 512;
+
+    private static final String[] ALL_COLUMNS = new String[]{
+            SyncTimingEntry._ID,
+            SyncTimingEntry.COLUMN_SYNC_ID,
+            SyncTimingEntry.COLUMN_STAGE,
+            SyncTimingEntry.COLUMN_DURATION
+    };
+
+    private static final String[] SUMMARY_COLUMNS = new String[]{
+            SyncTimingEntry.COLUMN_STAGE,
+            SyncTimingEntry.COLUMN_COUNT,
+            SyncTimingEntry.COLUMN_P50,
+            SyncTimingEntry.COLUMN_P95,
+            SyncTimingEntry.COLUMN_MAX
+    };
+
+    private static final long[] sSyncIds = new long[CAPACITY];
+    private static final String[] sStages = new String[CAPACITY];
+    private static final long[] sDurationNanos = new long[CAPACITY];
+    // Number of samples ever recorded; the next one goes to sRecordCount % CAPACITY
+    private static long sRecordCount;
+
+    private SyncTimingLog() {
+    }
+
+    /**
+     * @param syncId         the start time of the sync, see SyncTimingEntry.COLUMN_SYNC_ID
+     * @param stage          one of the SyncTimingEntry.STAGE_ values
+     * @param durationNanos  how long the stage took, as measured with System.nanoTime()
+     */
+    public static synchronized void record(long syncId, String stage, long durationNanos) {
+        int slot = (int) (sRecordCount % CAPACITY);
+        sSyncIds[slot] = syncId;
+        sStages[slot] = stage;
+        sDurationNanos[slot] = durationNanos;
+        sRecordCount++;
+    }
+
+    static synchronized void clear() {
+        Arrays.fill(sStages, null);
+        sRecordCount = 0;
+    }
+
+    /**
+     * @return every sample held, oldest first.  The _id of a sample is its position in the
+     * record order, so it keeps growing across wraps of the buffer.
+     */
+    static synchronized Cursor query(String[] projection) {
+        String[] columns = projection != null ? projection : ALL_COLUMNS;
+        long first = Math.max(0, sRecordCount - CAPACITY);
+        MatrixCursor cursor = new MatrixCursor(columns, (int) (sRecordCount - first));
+        Object[] row = new Object[columns.length];
+        for (long id = first; id < sRecordCount; id++) {
+            int slot = (int) (id % CAPACITY);
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = getColumnValue(columns[i], id, slot);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static Object getColumnValue(String column, long id, int slot) {
+        if (SyncTimingEntry._ID.equals(column)) {
+            return id;
+        } else if (SyncTimingEntry.COLUMN_SYNC_ID.equals(column)) {
+            return sSyncIds[slot];
+        } else if (SyncTimingEntry.COLUMN_STAGE.equals(column)) {
+            return sStages[slot];
+        } else if (SyncTimingEntry.COLUMN_DURATION.equals(column)) {
+            return toMillis(sDurationNanos[slot]);
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    /**
+     * @return one row per stage, in the order the stages were first seen, with the number of
+     * samples and the p50, p95 and maximum duration among them.
+     */
+    static synchronized Cursor querySummary() {
+        Map<String, ArrayList<Long>> byStage = new LinkedHashMap<String, ArrayList<Long>>();
+        long first = Math.max(0, sRecordCount - CAPACITY);
+        for (long id = first; id < sRecordCount; id++) {
+            int slot = (int) (id % CAPACITY);
+            ArrayList<Long> durations = byStage.get(sStages[slot]);
+            if (durations == null) {
+                durations = new ArrayList<Long>();
+                byStage.put(sStages[slot], durations);
+            }
+            durations.add(sDurationNanos[slot]);
+        }
+
+        MatrixCursor cursor = new MatrixCursor(SUMMARY_COLUMNS, byStage.size());
+        for (Map.Entry<String, ArrayList<Long>> stage : byStage.entrySet()) {
+            long[] durations = new long[stage.getValue().size()];
+            for (int i = 0; i < durations.length; i++) {
+                durations[i] = stage.getValue().get(i);
+            }
+            Arrays.sort(durations);
+            cursor.addRow(new Object[]{
+                    stage.getKey(),
+                    durations.length,
+                    toMillis(percentile(durations, 50)),
+                    toMillis(percentile(durations, 95)),
+                    toMillis(durations[durations.length - 1])
+            });
+        }
+        return cursor;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted, non-empty values.
+     */
+    static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
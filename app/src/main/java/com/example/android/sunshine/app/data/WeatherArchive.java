@@ -0,0 +1,264 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs past days of one location and month into a single blob for the history table, and
+ * unpacks them again.  Each column is stored on its own, as variable length integers:
+ * <ul>
+ * <li>dates as the change from one day's step to the next, which is 0 for consecutive days,</li>
+ * <li>weather ids and the measurements, in hundredths, as the change from the previous day,</li>
+ * <li>descriptions as indexes into the block's own list of the few distinct ones.</li>
+ * </ul>
+ * A month of a location then takes a few hundred bytes, where weather rows take several
+ * kilobytes with their index entries.  Measurements keep two decimals, which is all
+ * OpenWeatherMap sends.
+ */
+class WeatherArchive {
+
+    // The weather columns a day is read from, in the order of the INDEX_ constants
+    static final String[] DAY_COLUMNS = new String[]{
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match DAY_COLUMNS
+    static final int INDEX_LOC_KEY = 0;
+    static final int INDEX_DATE = 1;
+    static final int INDEX_WEATHER_ID = 2;
+    static final int INDEX_SHORT_DESC = 3;
+    // The measurements, which all take the same encoding
+    static final int INDEX_FIRST_MEASUREMENT = 4;
+    static final int MEASUREMENT_COUNT = 6;
+
+    private static final int FORMAT_VERSION = 1;
+    private static final double SCALE = 100;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    /**
+     * One archived day.  Values are held as DAY_COLUMNS types: Long, Long, Long, String, then
+     * Doubles.
+     */
+    static class Day {
+        final Object[] mValues = new Object[DAY_COLUMNS.length];
+
+        long getDate() {
+            return (Long) mValues[INDEX_DATE];
+        }
+    }
+
+    private WeatherArchive() {
+    }
+
+    /**
+     * Reads the current row of a cursor queried with DAY_COLUMNS.
+     */
+    static Day readDay(Cursor cursor) {
+        Day day = new Day();
+        day.mValues[INDEX_LOC_KEY] = cursor.getLong(INDEX_LOC_KEY);
+        day.mValues[INDEX_DATE] = cursor.getLong(INDEX_DATE);
+        day.mValues[INDEX_WEATHER_ID] = cursor.getLong(INDEX_WEATHER_ID);
+        day.mValues[INDEX_SHORT_DESC] = cursor.getString(INDEX_SHORT_DESC);
+        for (int i = INDEX_FIRST_MEASUREMENT; i < INDEX_FIRST_MEASUREMENT + MEASUREMENT_COUNT; i++) {
+            day.mValues[i] = cursor.getDouble(i);
+        }
+        return day;
+    }
+
+    /**
+     * @return the month a date falls in, in the default time zone, as year * 12 + month.
+     */
+    static int getMonth(long date, Calendar calendar) {
+        calendar.setTimeInMillis(date);
+        return calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+    }
+
+    /**
+     * Packs the days of one location, which must be in date order.
+     */
+    static byte[] encode(List<Day> days) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + days.size() * 16);
+        out.write(FORMAT_VERSION);
+        writeVarLong(out, days.size());
+
+        long previousDate = 0;
+        long previousStep = DAY_IN_MILLIS;
+        for (int i = 0; i < days.size(); i++) {
+            long date = days.get(i).getDate();
+            if (i == 0) {
+                writeSignedVarLong(out, date);
+            } else {
+                long step = date - previousDate;
+                writeSignedVarLong(out, step - previousStep);
+                previousStep = step;
+            }
+            previousDate = date;
+        }
+
+        long previousWeatherId = 0;
+        for (Day day : days) {
+            long weatherId = (Long) day.mValues[INDEX_WEATHER_ID];
+            writeSignedVarLong(out, weatherId - previousWeatherId);
+            previousWeatherId = weatherId;
+        }
+
+        Map<String, Integer> descriptionIndexes = new HashMap<String, Integer>();
+        List<String> descriptions = new ArrayList<String>();
+        for (Day day : days) {
+            String description = (String) day.mValues[INDEX_SHORT_DESC];
+            if (!descriptionIndexes.containsKey(description)) {
+                descriptionIndexes.put(description, descriptions.size());
+                descriptions.add(description);
+            }
+        }
+        writeVarLong(out, descriptions.size());
+        for (String description : descriptions) {
+            byte[] bytes = toUtf8(description);
+            writeVarLong(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        for (Day day : days) {
+            writeVarLong(out, descriptionIndexes.get((String) day.mValues[INDEX_SHORT_DESC]));
+        }
+
+        for (int column = INDEX_FIRST_MEASUREMENT;
+             column < INDEX_FIRST_MEASUREMENT + MEASUREMENT_COUNT; column++) {
+            long previous = 0;
+            for (Day day : days) {
+                long scaled = Math.round((Double) day.mValues[column] * SCALE);
+                writeSignedVarLong(out, scaled - previous);
+                previous = scaled;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Unpacks a block written by encode, giving every day the location id passed in.
+     *
+     * @throws IllegalArgumentException if the block is not one encode wrote
+     */
+    static List<Day> decode(long locationId, byte[] block) {
+        int[] position = new int[]{0};
+        if (block.length == 0 || block[position[0]++] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown archive block format");
+        }
+        int count = (int) readVarLong(block, position);
+        List<Day> days = new ArrayList<Day>(count);
+        for (int i = 0; i < count; i++) {
+            Day day = new Day();
+            day.mValues[INDEX_LOC_KEY] = locationId;
+            days.add(day);
+        }
+
+        long date = 0;
+        long step = DAY_IN_MILLIS;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                date = readSignedVarLong(block, position);
+            } else {
+                step += readSignedVarLong(block, position);
+                date += step;
+            }
+            days.get(i).mValues[INDEX_DATE] = date;
+        }
+
+        long weatherId = 0;
+        for (Day day : days) {
+            weatherId += readSignedVarLong(block, position);
+            day.mValues[INDEX_WEATHER_ID] = weatherId;
+        }
+
+        String[] descriptions = new String[(int) readVarLong(block, position)];
+        for (int i = 0; i < descriptions.length; i++) {
+            int length = (int) readVarLong(block, position);
+            descriptions[i] = fromUtf8(block, position[0], length);
+            position[0] += length;
+        }
+        for (Day day : days) {
+            day.mValues[INDEX_SHORT_DESC] = descriptions[(int) readVarLong(block, position)];
+        }
+
+        for (int column = INDEX_FIRST_MEASUREMENT;
+             column < INDEX_FIRST_MEASUREMENT + MEASUREMENT_COUNT; column++) {
+            long scaled = 0;
+            for (Day day : days) {
+                scaled += readSignedVarLong(block, position);
+                day.mValues[column] = scaled / SCALE;
+            }
+        }
+        return days;
+    }
+
+    // Seven bits at a time, low bits first, the high bit set on all but the last byte
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    // Zigzag, so small negative numbers stay short too
+    private static void writeSignedVarLong(ByteArrayOutputStream out, long value) {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readVarLong(byte[] in, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position[0] >= in.length || shift > 63) {
+                throw new IllegalArgumentException("Truncated archive block");
+            }
+            b = in[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long readSignedVarLong(byte[] in, int[] position) {
+        long value = readVarLong(in, position);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static byte[] toUtf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every platform has UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String fromUtf8(byte[] bytes, int offset, int length) {
+        if (offset + length > bytes.length) {
+            throw new IllegalArgumentException("Truncated archive block");
+        }
+        try {
+            return new String(bytes, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Writes weather rows through an INSERT and an UPDATE statement that are compiled once and then
+ * reused for every row, binding each column straight from the ContentValues.  SQLiteDatabase's
+ * insert and update would build and compile the SQL again for each row, and copy its values.
+ * <p/>
+ * Meant to be used inside a transaction, for one batch; close it when the batch is done.
+ */
+class WeatherBulkInserter {
+
+    private static final String LOG_TAG = WeatherBulkInserter.class.getSimpleName();
+
+    // Every column but the row id, in the order they are bound.  The content hash is passed
+    // separately, it is not taken from the values.
+    private static final String[] COLUMNS = new String[]{
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    // How each of COLUMNS is bound when the value is a number
+    private static final boolean[] INTEGER_COLUMNS = new boolean[]{
+            true, true, false, true, false, false, false, false, false, false
+    };
+
+    // Columns the UPDATE sets, after which come the location and date of the row to update
+    private static final int UPDATE_FIRST_COLUMN = 2;
+
+    private static final String SQL_INSERT;
+    private static final String SQL_UPDATE;
+
+    static {
+        StringBuilder insert = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (String column : COLUMNS) {
+            insert.append(column).append(", ");
+            placeholders.append("?, ");
+        }
+        insert.append(WeatherEntry.COLUMN_CONTENT_HASH).append(") VALUES (")
+                .append(placeholders).append("?)");
+        SQL_INSERT = insert.toString();
+
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(WeatherEntry.TABLE_NAME).append(" SET ");
+        for (int i = UPDATE_FIRST_COLUMN; i < COLUMNS.length; i++) {
+            update.append(COLUMNS[i]).append(" = ?, ");
+        }
+        update.append(WeatherEntry.COLUMN_CONTENT_HASH).append(" = ? WHERE ")
+                .append(WeatherProvider.sLocationIdAndDaySelection);
+        SQL_UPDATE = update.toString();
+    }
+
+    private final SQLiteDatabase mDb;
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdate;
+
+    WeatherBulkInserter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Inserts a new day.
+     *
+     * @return the row id, or -1 if the row could not be inserted (a required column missing,
+     * say), just like SQLiteDatabase.insert.
+     */
+    long insert(ContentValues values, long contentHash) {
+        if (mInsert == null) {
+            mInsert = mDb.compileStatement(SQL_INSERT);
+        }
+        mInsert.clearBindings();
+        int index = 1;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            bind(mInsert, index++, values.get(COLUMNS[i]), INTEGER_COLUMNS[i]);
+        }
+        mInsert.bindLong(index, contentHash);
+
+        try {
+            return mInsert.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Overwrites the forecast of a day that is already stored, keeping its row id.
+     *
+     * @return the number of rows changed.
+     */
+    int update(ContentValues values, long contentHash) {
+        if (mUpdate == null) {
+            mUpdate = mDb.compileStatement(SQL_UPDATE);
+        }
+        mUpdate.clearBindings();
+        int index = 1;
+        for (int i = UPDATE_FIRST_COLUMN; i < COLUMNS.length; i++) {
+            bind(mUpdate, index++, values.get(COLUMNS[i]), INTEGER_COLUMNS[i]);
+        }
+        mUpdate.bindLong(index++, contentHash);
+        bind(mUpdate, index++, values.get(WeatherEntry.COLUMN_LOC_KEY), true);
+        bind(mUpdate, index, values.get(WeatherEntry.COLUMN_DATE), true);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return executeUpdateDelete(mUpdate);
+        }
+        // The caller only updates days it knows are stored, and location and date identify
+        // at most one row
+        mUpdate.execute();
+        return 1;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int executeUpdateDelete(SQLiteStatement statement) {
+        return statement.executeUpdateDelete();
+    }
+
+    void close() {
+        if (mInsert != null) {
+            mInsert.close();
+        }
+        if (mUpdate != null) {
+            mUpdate.close();
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object value, boolean integer) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Number) {
+            if (integer) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            }
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else {
+            // Strings go in as they are; SQLite applies the column affinity
+            statement.bindString(index, value.toString());
+        }
+    }
+}
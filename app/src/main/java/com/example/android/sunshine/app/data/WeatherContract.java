@@ -19,7 +19,8 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +44,55 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_SYNC_TIMING = "sync_timing";
+    public static final String PATH_QUERY_CACHE = "query_cache";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return normalizeDate(startDate, getTimeZone());
+    }
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // The default time zone, kept since TimeZone.getDefault() returns a new copy every time
+    private static volatile TimeZone sTimeZone;
+
+    /**
+     * @return the default time zone, as of the last onTimeZoneChanged().  Don't change it.
+     */
+    public static TimeZone getTimeZone() {
+        TimeZone timeZone = sTimeZone;
+        if (timeZone == null) {
+            timeZone = TimeZone.getDefault();
+            sTimeZone = timeZone;
+        }
+        return timeZone;
+    }
+
+    /**
+     * Has the next getTimeZone() look the default time zone up again.  Called when the system's
+     * changes, and by anything else that calls TimeZone.setDefault.
+     */
+    public static void onTimeZoneChanged() {
+        sTimeZone = null;
+    }
+
+    /**
+     * Same as {@link #normalizeDate(long)}, in a given time zone.  Dates are normalized to the
+     * start of their day in local time, the way Time.getJulianDay counts days, by arithmetic
+     * alone.
+     */
+    public static long normalizeDate(long startDate, TimeZone timeZone) {
+        // The Julian day in local time, as Time.getJulianDay works it out
+        long localDay = (startDate + timeZone.getOffset(startDate)) / DAY_IN_MILLIS;
+        // Local midnight of that day.  Use the offset in force at midnight, in case it's
+        // different from the one at startDate (the date falls on a daylight saving change).
+        long localMidnight = localDay * DAY_IN_MILLIS;
+        return localMidnight - timeZone.getOffset(localMidnight - timeZone.getOffset(startDate));
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,6 +122,15 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // HTTP validators of the last forecast downloaded for this location.  They are sent back
+        // on the next request so the server can answer 304 Not Modified when nothing changed.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // Normalized date the validators were received on.  Forecast days are dated relative to
+        // the day of the download, so the validators are only reused on that same day.
+        public static final String COLUMN_VALIDATED_DATE = "validated_date";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -126,6 +176,18 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Hash of the forecast columns above, maintained by the provider.  It lets a bulk insert
+        // tell which days actually changed without comparing every column.
+        public static final String COLUMN_CONTENT_HASH = "content_hash";
+
+        // Query parameter that turns an update of CONTENT_URI into an upsert, see
+        // buildWeatherUpsertUri
+        public static final String PARAM_UPSERT = "upsert";
+
+        // Query parameter that turns a delete of CONTENT_URI into a move to the history table,
+        // see buildWeatherArchiveUri
+        public static final String PARAM_ARCHIVE = "archive";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +211,34 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /*
+            Updating this uri with a complete weather row writes the row by its location and date,
+            inserting it if that day isn't stored yet; the selection is ignored.  A day whose
+            forecast hasn't changed is left alone and doesn't count as updated, so the count
+            returned is the number of days actually written.  Meant for ContentProviderOperation
+            batches, which have no bulk insert.
+         */
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_UPSERT, "true").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return "true".equals(uri.getQueryParameter(PARAM_UPSERT));
+        }
+
+        /*
+            Deleting with this uri packs the selected rows into the history table before they go,
+            so they can still be read through HistoryEntry.  The count returned is the number of
+            rows moved.
+         */
+        public static Uri buildWeatherArchiveUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "true").build();
+        }
+
+        public static boolean isArchiveUri(Uri uri) {
+            return "true".equals(uri.getQueryParameter(PARAM_ARCHIVE));
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -165,4 +255,212 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        Inner class that defines the table contents of the hourly table: the short term forecast,
+        one row per point in time, every three hours with OpenWeatherMap.  Rows are kept small,
+        numbers only; the description of a point comes from its weather id.
+     */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Time the forecast is for, stored as long in milliseconds since the epoch.  Unlike the
+        // dates of the weather table, this is not normalized.
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature at that time (stored as a float)
+        public static final String COLUMN_TEMP = "temp";
+        // Same units as the weather table
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Query parameters bounding the time range of buildHourlyLocationWithRange
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /*
+            The points of a location from startTime, inclusive, to endTime, exclusive, in time
+            order.
+         */
+        public static Uri buildHourlyLocationWithRange(String locationSetting, long startTime,
+                                                       long endTime) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startTime))
+                    .appendQueryParameter(PARAM_END, Long.toString(endTime)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(PARAM_START);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return Long.MIN_VALUE;
+        }
+
+        public static long getEndTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(PARAM_END);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Inner class that defines the table contents of the history table, where past days are
+        kept once they leave the weather table: one row per location and month, the days packed
+        into a single blob.
+
+        Querying buildHistoryLocationWithRange returns days as weather rows, whichever of the two
+        tables they are in.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Month of the block, in local time, as year * 12 + month (0 for January)
+        public static final String COLUMN_MONTH = "month";
+        // Dates of the first and last day in the block, so ranges can be found without
+        // unpacking anything
+        public static final String COLUMN_FIRST_DATE = "first_date";
+        public static final String COLUMN_LAST_DATE = "last_date";
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        // The packed days
+        public static final String COLUMN_DAYS = "days";
+
+        // Query parameters bounding the date range of buildHistoryLocationWithRange
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        /*
+            The days of a location from startDate, inclusive, to endDate, exclusive, in date
+            order.  Rows have the WeatherEntry columns; their _id is the date, since days that
+            were archived have no row id of their own.
+         */
+        public static Uri buildHistoryLocationWithRange(String locationSetting, long startDate,
+                                                        long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MIN_VALUE;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Timings of the stages of recent syncs.  These are not stored in the database: the
+        provider serves them read-only from SyncTimingLog, which only holds the latest samples.
+     */
+    public static final class SyncTimingEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_TIMING).build();
+
+        // Per-stage latency percentiles over the samples currently held
+        public static final Uri SUMMARY_URI = CONTENT_URI.buildUpon().appendPath("summary").build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_TIMING;
+
+        // Wall clock time the sync started, in milliseconds since the epoch.  Every stage of
+        // the same sync carries the same value.
+        public static final String COLUMN_SYNC_ID = "sync_id";
+        // One of the STAGE_ values below
+        public static final String COLUMN_STAGE = "stage";
+        // How long the stage took, in milliseconds, stored as a double
+        public static final String COLUMN_DURATION = "duration";
+
+        // Columns of SUMMARY_URI, besides COLUMN_STAGE.  Durations are in milliseconds.
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_P50 = "p50";
+        public static final String COLUMN_P95 = "p95";
+        public static final String COLUMN_MAX = "max";
+
+        public static final String STAGE_ACCOUNT = "account";
+        public static final String STAGE_CONNECT = "connect";
+        public static final String STAGE_DOWNLOAD = "download";
+        public static final String STAGE_PARSE = "parse";
+        // Downloading and decoding the hourly forecast of a location
+        public static final String STAGE_HOURLY = "hourly";
+        // Writing the new locations, days and hourly points, archiving past days, deleting past
+        // points and storing the validators, all in one provider batch
+        public static final String STAGE_APPLY_BATCH = "apply_batch";
+        public static final String STAGE_WEAR = "wear";
+        public static final String STAGE_WIDGETS = "widgets";
+        public static final String STAGE_MUZEI = "muzei";
+        public static final String STAGE_NOTIFICATION = "notification";
+        // The whole of onPerformSync
+        public static final String STAGE_TOTAL = "total";
+    }
+
+    /*
+        Hit and miss counts of the provider's query result cache, as a single row.  Like the
+        sync timings, these live in memory only and start over with the process.
+     */
+    public static final class QueryCacheEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_QUERY_CACHE).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_QUERY_CACHE;
+
+        // Queries answered from the cache
+        public static final String COLUMN_HITS = "hits";
+        // Queries that went to the database
+        public static final String COLUMN_MISSES = "misses";
+        // Results held right now
+        public static final String COLUMN_ENTRIES = "entries";
+    }
 }
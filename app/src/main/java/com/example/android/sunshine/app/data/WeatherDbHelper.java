@@ -15,29 +15,160 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ * <p/>
+ * Where the platform supports it (API 11 and up) the database runs in write-ahead-log mode, so
+ * the forecast list, the widgets and Muzei can keep reading while a sync holds its write
+ * transaction.  The framework sizes the pool of reader connections itself once WAL is on; an
+ * app has no say in it.  What we do control is when the log gets folded back into the database.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version, and add the
+    // step from the previous version to upgradeFrom.
+    static final int DATABASE_VERSION = 7;
+
+    // Databases older than this predate the migrations and are recreated empty
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Index on the weather table that leads with the location.  The UNIQUE constraint already
+    // indexes (date, location_id), but every query for a location's forecast narrows down by
+    // location first and then by date, so it could only use that one for the date part.
+    // Carrying the content hash as well lets the bulk insert look up what is stored without
+    // touching the table at all.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_CONTENT_HASH + ");";
+
+    // Hourly points are small and many: no text, and no AUTOINCREMENT, so a replaced point
+    // doesn't cost a sqlite_sequence update.  The UNIQUE constraint's index, location first, is
+    // what range queries of one location run on.
+    private static final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+            HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+            HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+    // Past days, packed by WeatherArchive.  The UNIQUE constraint's index, location first, is
+    // what reads of one location's history run on.
+    private static final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+            HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+            HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_FIRST_DATE + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_LAST_DATE + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_DAYS + " BLOB NOT NULL, " +
+            " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+            HistoryEntry.COLUMN_MONTH + ") ON CONFLICT REPLACE);";
+
+    // SQLite checkpoints on its own once the log grows past this many pages.  A 14 day sync of a
+    // handful of locations stays well below it; it is there for the big multi-location syncs.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    // After writing at least this many rows, the provider asks for a checkpoint right away
+    // instead of leaving it to the next commit that happens to cross the limit
+    static final int CHECKPOINT_AFTER_ROWS = 500;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // For tests that need a database of their own
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging(db);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            runPragma(db, "wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    /**
+     * Copies what the write-ahead log holds back into the database, as far as readers allow.
+     * This never waits for readers, so it is safe to call right after a big write.  Does
+     * nothing if the database is not in WAL mode.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && isWriteAheadLoggingEnabled(db)) {
+            runPragma(db, "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean isWriteAheadLoggingEnabled(SQLiteDatabase db) {
+        return db.isWriteAheadLoggingEnabled();
+    }
+
+    // PRAGMAs that report a result have to go through rawQuery, and nothing runs until the
+    // cursor is stepped
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+        Log.v(LOG_TAG, "PRAGMA " + pragma);
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        // Any ids remembered from an earlier database are meaningless in this one
+        LocationIdCache.clear();
+
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -45,7 +176,10 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                LocationEntry.COLUMN_VALIDATED_DATE + " INTEGER " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -69,6 +203,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_CONTENT_HASH + " INTEGER, " +
 
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
@@ -81,18 +216,113 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
     }
 
+    /**
+     * Brings the database up to date one version at a time, keeping the stored locations and
+     * forecasts.  Throwing away the cache would make every device refetch every location as
+     * soon as it gets the update, all at once.
+     * <p/>
+     * Like onCreate, this runs in a transaction, so a failed migration leaves the old database
+     * as it was.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            // Note that this only fires if you change the version number for your database.
+            // It does NOT depend on the version number for your application.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        for (int version = oldVersion; version < newVersion; version++) {
+            Log.d(LOG_TAG, "Upgrading database from version " + version);
+            upgradeFrom(sqLiteDatabase, version);
+        }
+    }
+
+    /**
+     * Migrates the database from the given version to the next one.
+     */
+    private static void upgradeFrom(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                // Response validators of the last forecast download
+                addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_ETAG, "TEXT");
+                addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_LAST_MODIFIED, "TEXT");
+                addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_VALIDATED_DATE, "INTEGER");
+                break;
+            case 3:
+                // Content hash of each day, so unchanged days aren't rewritten
+                addColumn(db, WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_CONTENT_HASH, "INTEGER");
+                fillContentHashes(db);
+                break;
+            case 4:
+                // Location-first index
+                db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                break;
+            case 5:
+                // Hourly forecast, filled by the next sync
+                db.execSQL(SQL_CREATE_HOURLY_TABLE);
+                break;
+            case 6:
+                // Past days are archived from now on.  Nothing to move yet: until now they
+                // were deleted.
+                db.execSQL(SQL_CREATE_HISTORY_TABLE);
+                break;
+            default:
+                throw new IllegalStateException("No migration from database version " + version);
+        }
+    }
+
+    private static void addColumn(SQLiteDatabase db, String table, String column, String type) {
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+    }
+
+    /**
+     * Hashes the days that are already stored.  A day without a hash would still work, it
+     * would just be rewritten by the next sync whether it changed or not.
+     */
+    private static void fillContentHashes(SQLiteDatabase db) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry._ID,
+                        WeatherEntry.COLUMN_WEATHER_ID,
+                        WeatherEntry.COLUMN_MIN_TEMP,
+                        WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherEntry.COLUMN_HUMIDITY,
+                        WeatherEntry.COLUMN_PRESSURE,
+                        WeatherEntry.COLUMN_WIND_SPEED,
+                        WeatherEntry.COLUMN_DEGREES,
+                        WeatherEntry.COLUMN_SHORT_DESC},
+                null, null, null, null, null);
+        ContentValues values = new ContentValues();
+        ContentValues hashValues = new ContentValues(1);
+        String[] idArgs = new String[1];
+        try {
+            while (cursor.moveToNext()) {
+                values.put(WeatherEntry.COLUMN_WEATHER_ID, cursor.getLong(1));
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(2));
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(3));
+                values.put(WeatherEntry.COLUMN_HUMIDITY, cursor.getDouble(4));
+                values.put(WeatherEntry.COLUMN_PRESSURE, cursor.getDouble(5));
+                values.put(WeatherEntry.COLUMN_WIND_SPEED, cursor.getDouble(6));
+                values.put(WeatherEntry.COLUMN_DEGREES, cursor.getDouble(7));
+                values.put(WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(8));
+
+                hashValues.put(WeatherEntry.COLUMN_CONTENT_HASH,
+                        WeatherProvider.computeContentHash(values));
+                idArgs[0] = Long.toString(cursor.getLong(0));
+                db.update(WeatherEntry.TABLE_NAME, hashValues, WeatherEntry._ID + " = ?", idArgs);
+            }
+        } finally {
+            cursor.close();
+        }
     }
 }
@@ -17,25 +17,75 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final QueryResultCache mQueryCache = new QueryResultCache();
+    // The applyBatch running on this thread, if any
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    /**
+     * What an applyBatch has written so far.  Change notifications and cache invalidations wait
+     * until the batch commits, and each uri is notified once however many operations touched it.
+     */
+    private static class Batch {
+        final Set<Uri> mNotifyUris = new LinkedHashSet<Uri>();
+        final Set<Long> mChangedLocationIds = new HashSet<Long>();
+        // Location rows updated in place, with the columns that changed
+        final Map<Long, Set<String>> mChangedLocationColumns = new HashMap<Long, Set<String>>();
+        boolean mInvalidateAll;
+        int mWeatherRowsWritten;
+        // Shared by the weather upserts of the batch, so they compile their statements once
+        WeatherBulkInserter mInserter;
+        // Stored content hashes of the locations upserted so far, read once per location and
+        // kept up to date as the upserts write
+        final Map<String, Long> mStoredHashes = new HashMap<String, Long>();
+        final Set<Long> mHashedLocationIds = new HashSet<Long>();
+    }
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_TIMING = 400;
+    static final int SYNC_TIMING_SUMMARY = 401;
+    static final int QUERY_CACHE = 500;
+    static final int HOURLY = 600;
+    static final int HOURLY_WITH_LOCATION = 601;
+    static final int HISTORY = 700;
+    static final int HISTORY_WITH_LOCATION = 701;
+
+    // A write that changes more days than this notifies the whole weather table instead of
+    // each day, rather than make that many calls
+    static final int MAX_DAY_NOTIFICATIONS = 64;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -51,63 +101,330 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
-    //location.location_setting = ?
-    private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
-
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    //location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //location_id = ? AND date >= ?
+    static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    //location_id = ? AND date = ?
+    static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    //location_id = ? AND date >= ? AND date < ?
+    static final String sLocationIdWithDateRangeSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
+    //location_id = ? AND last_date >= ? AND first_date < ?
+    static final String sHistoryRangeSelection =
+            WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_LAST_DATE + " >= ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_FIRST_DATE + " < ? ";
+
+    //location_id = ? AND month = ?
+    static final String sHistoryMonthSelection =
+            WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HistoryEntry.COLUMN_MONTH + " = ? ";
+
+    //location_id = ? AND time >= ? AND time < ?
+    static final String sHourlyRangeSelection =
+            WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ";
+
+    //location.location_setting = ?
+    private static final String sLocationSettingOnlySelection =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    // Columns of history/* when no projection is given
+    private static final String[] sHistoryColumns;
+
+    static {
+        sHistoryColumns = new String[WeatherArchive.DAY_COLUMNS.length + 1];
+        sHistoryColumns[0] = WeatherContract.WeatherEntry._ID;
+        System.arraycopy(WeatherArchive.DAY_COLUMNS, 0, sHistoryColumns, 1,
+                WeatherArchive.DAY_COLUMNS.length);
+    }
+
+    // Columns only the location table has.  Weather queries whose projection names none of
+    // these don't need the join at all.
+    private static final Set<String> sLocationOnlyColumns = new HashSet<String>();
+
+    static {
+        sLocationOnlyColumns.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        sLocationOnlyColumns.add(WeatherContract.LocationEntry.COLUMN_CITY_NAME);
+        sLocationOnlyColumns.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        sLocationOnlyColumns.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        sLocationOnlyColumns.add(WeatherContract.LocationEntry.COLUMN_ETAG);
+        sLocationOnlyColumns.add(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED);
+        sLocationOnlyColumns.add(WeatherContract.LocationEntry.COLUMN_VALIDATED_DATE);
+    }
+
+    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String selection,
+                                               String[] selectionArgs, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
-        String[] selectionArgs;
-        String selection;
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = resolveLocationId(db, locationSetting);
+        // Any other query parameters don't change the result
+        String cacheKey = QueryResultCache.buildKey(uri.getPath() + "?" + startDate,
+                projection, selection, selectionArgs, sortOrder);
+
+        String[] locationSelectionArgs;
+        String locationSelection;
 
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            locationSelection = sLocationIdSelection;
+            locationSelectionArgs = new String[]{Long.toString(locationId)};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            locationSelectionArgs = new String[]{Long.toString(locationId), Long.toString(startDate)};
+            locationSelection = sLocationIdWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return queryWeatherForLocation(db, cacheKey, locationId, projection, locationSelection,
+                locationSelectionArgs, sortOrder);
+    }
+
+    private Cursor getWeatherByLocationSettingAndDate(Uri uri, String[] projection,
+                                                      String selection, String[] selectionArgs,
+                                                      String sortOrder) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = resolveLocationId(db, locationSetting);
+        String cacheKey = QueryResultCache.buildKey(uri.getPath(),
+                projection, selection, selectionArgs, sortOrder);
+
+        return queryWeatherForLocation(db, cacheKey, locationId, projection,
+                sLocationIdAndDaySelection,
+                new String[]{Long.toString(locationId), Long.toString(date)}, sortOrder);
+    }
+
+    /**
+     * Reads the hourly points of one location within the time range of the uri, in time order
+     * unless asked otherwise.  The range is looked up on the table's (location_id, time) index,
+     * so the cost follows the size of the range, not of the table.
+     */
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+        long endTime = WeatherContract.HourlyEntry.getEndTimeFromUri(uri);
+
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = resolveLocationId(db, locationSetting);
+
+        return db.query(WeatherContract.HourlyEntry.TABLE_NAME,
                 projection,
-                selection,
-                selectionArgs,
+                sHourlyRangeSelection,
+                new String[]{Long.toString(locationId), Long.toString(startTime),
+                        Long.toString(endTime)},
                 null,
                 null,
-                sortOrder
+                sortOrder != null ? sortOrder : WeatherContract.HourlyEntry.COLUMN_TIME + " ASC"
         );
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+    /**
+     * Reads the days of one location within the date range of the uri, from the history table
+     * and the weather table both, in date order.  Should a day be in both, the weather table
+     * has the newer forecast.
+     */
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.HistoryEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.HistoryEntry.getEndDateFromUri(uri);
+        String[] columns = projection != null ? projection : sHistoryColumns;
+        int[] sourceIndexes = getHistorySourceIndexes(columns);
+
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = resolveLocationId(db, locationSetting);
+        TreeMap<Long, WeatherArchive.Day> days = new TreeMap<Long, WeatherArchive.Day>();
+        if (locationId != LocationIdCache.UNKNOWN) {
+            String[] rangeArgs = new String[]{Long.toString(locationId),
+                    Long.toString(startDate), Long.toString(endDate)};
+
+            Cursor cursor = db.query(WeatherContract.HistoryEntry.TABLE_NAME,
+                    new String[]{WeatherContract.HistoryEntry.COLUMN_DAYS},
+                    sHistoryRangeSelection, rangeArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    for (WeatherArchive.Day day : WeatherArchive.decode(locationId, cursor.getBlob(0))) {
+                        if (day.getDate() >= startDate && day.getDate() < endDate) {
+                            days.put(day.getDate(), day);
+                        }
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, WeatherArchive.DAY_COLUMNS,
+                    sLocationIdWithDateRangeSelection, rangeArgs, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    WeatherArchive.Day day = WeatherArchive.readDay(cursor);
+                    days.put(day.getDate(), day);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        MatrixCursor historyCursor = new MatrixCursor(columns, days.size());
+        for (WeatherArchive.Day day : days.values()) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = sourceIndexes[i] == -1 ? day.getDate() : day.mValues[sourceIndexes[i]];
+            }
+            historyCursor.addRow(row);
+        }
+        return historyCursor;
+    }
+
+    /**
+     * @return for each column of a history projection, its index in WeatherArchive.DAY_COLUMNS,
+     * or -1 for the row id.
+     */
+    private static int[] getHistorySourceIndexes(String[] columns) {
+        String weatherPrefix = WeatherContract.WeatherEntry.TABLE_NAME + ".";
+        int[] sourceIndexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            String column = columns[i].startsWith(weatherPrefix)
+                    ? columns[i].substring(weatherPrefix.length()) : columns[i];
+            if (WeatherContract.WeatherEntry._ID.equals(column)) {
+                sourceIndexes[i] = -1;
+                continue;
+            }
+            sourceIndexes[i] = Arrays.asList(WeatherArchive.DAY_COLUMNS).indexOf(column);
+            if (sourceIndexes[i] == -1) {
+                throw new IllegalArgumentException("Invalid history column " + columns[i]);
+            }
+        }
+        return sourceIndexes;
+    }
+
+    /**
+     * Runs a weather query that is already narrowed down to one location id, joining location
+     * only if the projection asks for its columns.  Results are served from mQueryCache when
+     * they can be.
+     */
+    private Cursor queryWeatherForLocation(SQLiteDatabase db, String cacheKey, long locationId,
+                                           String[] projection, String selection,
+                                           String[] selectionArgs, String sortOrder) {
+        if (locationId == LocationIdCache.UNKNOWN) {
+            // Nothing to find, and nothing we could tell the cache to invalidate it by later
+            return queryWeatherForLocation(db, projection, selection, selectionArgs, sortOrder);
+        }
+
+        Cursor cursor = mQueryCache.get(cacheKey);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mQueryCache.getGeneration();
+        cursor = queryWeatherForLocation(db, projection, selection, selectionArgs, sortOrder);
+        return mQueryCache.put(cacheKey, locationId, generation, cursor);
+    }
+
+    private Cursor queryWeatherForLocation(SQLiteDatabase db, String[] projection,
+                                           String selection, String[] selectionArgs,
+                                           String sortOrder) {
+        if (!needsLocationColumns(projection)) {
+            return db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    projection,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    sortOrder
+            );
+        }
+        return sWeatherByLocationSettingQueryBuilder.query(db,
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                selection,
+                selectionArgs,
                 null,
                 null,
                 sortOrder
         );
     }
 
+    static boolean needsLocationColumns(String[] projection) {
+        if (projection == null) {
+            // All columns
+            return true;
+        }
+        String locationPrefix = WeatherContract.LocationEntry.TABLE_NAME + ".";
+        for (String column : projection) {
+            if (column.startsWith(locationPrefix) || sLocationOnlyColumns.contains(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the setting of the location row with this _id, or null if there is none.
+     */
+    private static String resolveLocationSetting(SQLiteDatabase db, long locationId) {
+        String locationSetting = LocationIdCache.getLocationSetting(locationId);
+        if (locationSetting != null) {
+            return locationSetting;
+        }
+
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        try {
+            if (cursor.moveToFirst()) {
+                locationSetting = cursor.getString(0);
+                LocationIdCache.put(locationSetting, locationId);
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationSetting;
+    }
+
+    /**
+     * @return the _id of the location row for this setting, or LocationIdCache.UNKNOWN if there
+     * is none.  Only the first lookup of a setting goes to the database.
+     */
+    private static long resolveLocationId(SQLiteDatabase db, String locationSetting) {
+        long locationId = LocationIdCache.get(locationSetting);
+        if (locationId != LocationIdCache.UNKNOWN) {
+            return locationId;
+        }
+
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                sLocationSettingOnlySelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            if (cursor.moveToFirst()) {
+                locationId = cursor.getLong(0);
+                LocationIdCache.put(locationSetting, locationId);
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationId;
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +447,17 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TIMING, SYNC_TIMING);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TIMING + "/summary", SYNC_TIMING_SUMMARY);
+
+        matcher.addURI(authority, WeatherContract.PATH_QUERY_CACHE, QUERY_CACHE);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
         return matcher;
     }
 
@@ -164,6 +492,17 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_TIMING:
+            case SYNC_TIMING_SUMMARY:
+                return WeatherContract.SyncTimingEntry.CONTENT_TYPE;
+            case QUERY_CACHE:
+                return WeatherContract.QueryCacheEntry.CONTENT_ITEM_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -179,12 +518,14 @@ public class WeatherProvider extends ContentProvider {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                retCursor = getWeatherByLocationSettingAndDate(uri, projection, selection,
+                        selectionArgs, sortOrder);
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherByLocationSetting(uri, projection, selection,
+                        selectionArgs, sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +554,64 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_timing", read-only and served from memory, so selection and order are
+            // not supported
+            case SYNC_TIMING: {
+                retCursor = SyncTimingLog.query(projection);
+                break;
+            }
+            // "sync_timing/summary"
+            case SYNC_TIMING_SUMMARY: {
+                retCursor = SyncTimingLog.querySummary();
+                break;
+            }
+            // "query_cache"
+            case QUERY_CACHE: {
+                MatrixCursor statsCursor = new MatrixCursor(new String[]{
+                        WeatherContract.QueryCacheEntry.COLUMN_HITS,
+                        WeatherContract.QueryCacheEntry.COLUMN_MISSES,
+                        WeatherContract.QueryCacheEntry.COLUMN_ENTRIES}, 1);
+                statsCursor.addRow(new Object[]{mQueryCache.getHitCount(),
+                        mQueryCache.getMissCount(), mQueryCache.size()});
+                retCursor = statsCursor;
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*", read-only and always in date order
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection);
+                break;
+            }
+            // "history", the packed blocks themselves
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -229,21 +628,50 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        Uri notifyUri = uri;
 
         switch (match) {
             case WEATHER: {
+                forgetStoredContentHashes();
                 normalizeDate(values);
+                values.put(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH, computeContentHash(values));
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                invalidateLocation(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                notifyUri = getDayUri(db,
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
+                // Inserting a location that is already there is not an error, it just hands
+                // back the existing row
+                String locationSetting =
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                long _id = locationSetting == null ? LocationIdCache.UNKNOWN
+                        : resolveLocationId(db, locationSetting);
+                if (_id != LocationIdCache.UNKNOWN) {
+                    return WeatherContract.LocationEntry.buildLocationUri(_id);
+                }
+                _id = db.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME, null,
+                        values, SQLiteDatabase.CONFLICT_IGNORE);
+                if ( _id > 0 ) {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
+                    if (locationSetting != null) {
+                        LocationIdCache.put(locationSetting, _id);
+                    }
+                } else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
+            case HOURLY: {
+                // A point that is already stored is replaced
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyEntry.buildHourlyUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
@@ -251,7 +679,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(notifyUri);
         return returnUri;
     }
 
@@ -260,27 +688,147 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        Set<Uri> notifyUris = Collections.singleton(uri);
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                forgetStoredContentHashes();
+                notifyUris = getDayUris(db, selection, selectionArgs);
+                if (WeatherContract.WeatherEntry.isArchiveUri(uri)) {
+                    rowsDeleted = archiveWeather(db, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+                    }
+                } else {
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                }
                 break;
             case LOCATION:
+                // Which may take the location's weather with it
+                forgetStoredContentHashes();
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                LocationIdCache.clear();
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            // We can't tell which locations the selection hit.  Hourly points and history are
+            // never cached.
+            if (match != HOURLY && match != HISTORY) {
+                invalidateAllQueries();
+            }
+            notifyChanges(notifyUris);
         }
         return rowsDeleted;
     }
 
+    /**
+     * Moves the selected weather rows into the history table, see
+     * WeatherEntry.buildWeatherArchiveUri().  Each location and month the rows belong to gets
+     * one block, merged with the one already stored.
+     *
+     * @return the number of rows moved.
+     */
+    private static int archiveWeather(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        int rowsArchived;
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherArchive.DAY_COLUMNS,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherContract.WeatherEntry.COLUMN_DATE);
+            try {
+                Calendar calendar = Calendar.getInstance();
+                List<WeatherArchive.Day> monthDays = new ArrayList<WeatherArchive.Day>();
+                long locationId = LocationIdCache.UNKNOWN;
+                int month = 0;
+                while (cursor.moveToNext()) {
+                    WeatherArchive.Day day = WeatherArchive.readDay(cursor);
+                    long dayLocationId = cursor.getLong(WeatherArchive.INDEX_LOC_KEY);
+                    int dayMonth = WeatherArchive.getMonth(day.getDate(), calendar);
+                    if (!monthDays.isEmpty() && (dayLocationId != locationId || dayMonth != month)) {
+                        archiveMonth(db, locationId, month, monthDays);
+                        monthDays.clear();
+                    }
+                    locationId = dayLocationId;
+                    month = dayMonth;
+                    monthDays.add(day);
+                }
+                if (!monthDays.isEmpty()) {
+                    archiveMonth(db, locationId, month, monthDays);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            rowsArchived = db.delete(WeatherContract.WeatherEntry.TABLE_NAME, selection,
+                    selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return rowsArchived;
+    }
+
+    /**
+     * Writes the block of one location and month, with the given days (in date order) added to
+     * those it already holds.  A day in both is taken from the new ones.
+     */
+    private static void archiveMonth(SQLiteDatabase db, long locationId, int month,
+                                     List<WeatherArchive.Day> days) {
+        TreeMap<Long, WeatherArchive.Day> merged = new TreeMap<Long, WeatherArchive.Day>();
+        Cursor cursor = db.query(WeatherContract.HistoryEntry.TABLE_NAME,
+                new String[]{WeatherContract.HistoryEntry.COLUMN_DAYS},
+                sHistoryMonthSelection,
+                new String[]{Long.toString(locationId), Integer.toString(month)},
+                null,
+                null,
+                null);
+        try {
+            if (cursor.moveToFirst()) {
+                for (WeatherArchive.Day day : WeatherArchive.decode(locationId, cursor.getBlob(0))) {
+                    merged.put(day.getDate(), day);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        for (WeatherArchive.Day day : days) {
+            merged.put(day.getDate(), day);
+        }
+
+        List<WeatherArchive.Day> monthDays = new ArrayList<WeatherArchive.Day>(merged.values());
+        ContentValues values = new ContentValues(6);
+        values.put(WeatherContract.HistoryEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherContract.HistoryEntry.COLUMN_MONTH, month);
+        values.put(WeatherContract.HistoryEntry.COLUMN_FIRST_DATE, merged.firstKey());
+        values.put(WeatherContract.HistoryEntry.COLUMN_LAST_DATE, merged.lastKey());
+        values.put(WeatherContract.HistoryEntry.COLUMN_DAY_COUNT, monthDays.size());
+        values.put(WeatherContract.HistoryEntry.COLUMN_DAYS, WeatherArchive.encode(monthDays));
+        // Replaces the old block
+        if (db.insert(WeatherContract.HistoryEntry.TABLE_NAME, null, values) == -1) {
+            throw new android.database.SQLException("Failed to archive month " + month +
+                    " of location " + locationId);
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -289,59 +837,603 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    // Bulk version of the above.  Dates the sync adapter sends are normalized already, so
+    // the value is only replaced (and a new Long boxed) when it actually changes.
+    private static void normalizeDate(ContentValues values, TimeZone timeZone) {
+        Long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (dateValue != null) {
+            long normalizedDate = WeatherContract.normalizeDate(dateValue, timeZone);
+            if (normalizedDate != dateValue) {
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE, normalizedDate);
+            }
+        }
+    }
+
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        Set<Uri> notifyUris = Collections.singleton(uri);
 
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                    return upsertWeather(db, values);
+                }
+                forgetStoredContentHashes();
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // Rows move to days we can't name before the update
+                    notifyUris = Collections.singleton(WeatherContract.WeatherEntry.CONTENT_URI);
+                } else {
+                    notifyUris = getDayUris(db, selection, selectionArgs);
+                }
                 normalizeDate(values);
+                if (!values.containsKey(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH)) {
+                    // We can't hash a partial row, so make the next bulk insert rewrite it
+                    values.putNull(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH);
+                }
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
+                return updateLocation(db, uri, values, selection, selectionArgs);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateAllQueries();
+            notifyChanges(notifyUris);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Updates location rows in place.  Every sync ends by saving its response validators here,
+     * so cached weather is only dropped where it read one of the changed columns: all of it if
+     * a location setting changed, which also moves the rows between the uris they're read by.
+     */
+    private int updateLocation(SQLiteDatabase db, Uri uri, ContentValues values,
+                               String selection, String[] selectionArgs) {
+        if (values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)) {
+            int rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                    selection, selectionArgs);
+            LocationIdCache.clear();
+            if (rowsUpdated != 0) {
+                invalidateAllQueries();
+                notifyChange(uri);
+            }
+            return rowsUpdated;
+        }
+
+        int rowsUpdated;
+        Set<Long> locationIds = new HashSet<Long>();
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID}, selection, selectionArgs,
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    locationIds.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                    selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rowsUpdated != 0) {
+            for (Long locationId : locationIds) {
+                invalidateLocationColumns(locationId, values.keySet());
+            }
+            notifyChange(uri);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Writes one complete weather row by its location and date, see
+     * WeatherEntry.buildWeatherUpsertUri().
+     *
+     * @return 1 if the row was written, 0 if the stored day already had this forecast.
+     */
+    private int upsertWeather(SQLiteDatabase db, ContentValues values) {
+        normalizeDate(values, WeatherContract.getTimeZone());
+        long contentHash = computeContentHash(values);
+
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Batch batch = mBatch.get();
+        int written;
+        if (batch != null) {
+            // Already in the batch's transaction
+            if (batch.mInserter == null) {
+                batch.mInserter = new WeatherBulkInserter(db);
+            }
+            if (locationId != null && batch.mHashedLocationIds.add(locationId)) {
+                readStoredContentHashes(db, locationId, batch.mStoredHashes);
+            }
+            written = writeWeatherRow(batch.mInserter, values, contentHash, batch.mStoredHashes);
+            if (written > 0) {
+                batch.mStoredHashes.put(getRowKey(locationId,
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)), contentHash);
+            }
+        } else {
+            WeatherBulkInserter inserter = new WeatherBulkInserter(db);
+            db.beginTransaction();
+            try {
+                written = writeWeatherRow(inserter, values, contentHash,
+                        getStoredContentHashes(db, new ContentValues[]{values}));
+                db.setTransactionSuccessful();
+            } finally {
+                inserter.close();
+                db.endTransaction();
+            }
+        }
+
+        if (written > 0) {
+            weatherRowsWritten(db, written);
+            invalidateLocation(locationId);
+            notifyChange(getDayUri(db, locationId,
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)));
+        }
+        return written;
+    }
+
+    /**
+     * Inserts weather rows, skipping any day whose stored content hash shows it hasn't changed.
+     * Days that already exist are updated in place rather than replaced.
+     *
+     * @return the number of rows that were actually inserted or changed.  Observers are only
+     * notified when this is not zero.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                forgetStoredContentHashes();
+                TimeZone timeZone = WeatherContract.getTimeZone();
+                long[] contentHashes = new long[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    normalizeDate(values[i], timeZone);
+                    contentHashes[i] = computeContentHash(values[i]);
+                }
+
                 db.beginTransaction();
+                WeatherBulkInserter inserter = new WeatherBulkInserter(db);
                 int returnCount = 0;
+                Set<Long> changedLocationIds = new HashSet<Long>();
+                Set<Uri> changedDayUris = new LinkedHashSet<Uri>();
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                    Map<String, Long> storedHashes = getStoredContentHashes(db, values);
+                    for (int i = 0; i < values.length; i++) {
+                        ContentValues value = values[i];
+                        int written = writeWeatherRow(inserter, value, contentHashes[i],
+                                storedHashes);
+                        if (written > 0) {
+                            returnCount += written;
+                            Long locationId =
+                                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                            changedLocationIds.add(locationId);
+                            changedDayUris.add(getDayUri(db, locationId,
+                                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)));
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    inserter.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                weatherRowsWritten(db, returnCount);
+                // Only now that the rows are committed, or a reader could cache the old ones again
+                for (Long locationId : changedLocationIds) {
+                    invalidateLocation(locationId);
+                }
+                if (returnCount > 0) {
+                    notifyChanges(changedDayUris.size() > MAX_DAY_NOTIFICATIONS
+                            ? Collections.singleton(uri) : changedDayUris);
+                }
                 return returnCount;
+            case HOURLY:
+                // One transaction rather than one per point
+                int insertCount = 0;
+                db.beginTransaction();
+                try {
+                    for (ContentValues value : values) {
+                        if (db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, value) != -1) {
+                            insertCount++;
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (insertCount > 0) {
+                    notifyChange(uri);
+                }
+                return insertCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Writes one weather row, unless the stored content hashes show the day is already stored
+     * with the same forecast.  Days that already exist are updated in place.
+     *
+     * @param storedHashes see getStoredContentHashes
+     * @return the number of rows written, 0 or 1.
+     */
+    private static int writeWeatherRow(WeatherBulkInserter inserter, ContentValues value,
+                                       long contentHash, Map<String, Long> storedHashes) {
+        String rowKey = getRowKey(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        Long storedHash = storedHashes.get(rowKey);
+
+        if (storedHash == null && !storedHashes.containsKey(rowKey)) {
+            // a day we haven't seen before
+            return inserter.insert(value, contentHash) != -1 ? 1 : 0;
+        } else if (storedHash == null || storedHash != contentHash) {
+            // a day we already have, with a different forecast
+            return inserter.update(value, contentHash);
+        }
+        return 0;
+    }
+
+    /**
+     * Applies the operations in a single transaction.  Observers hear about the changes once,
+     * after everything has been committed, rather than once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mBatch.get() != null) {
+            // Already inside a batch, which this just becomes part of
+            return super.applyBatch(operations);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            if (batch.mInserter != null) {
+                batch.mInserter.close();
+            }
+            db.endTransaction();
+            mBatch.remove();
+
+            if (successful) {
+                weatherRowsWritten(db, batch.mWeatherRowsWritten);
+                if (batch.mInvalidateAll) {
+                    invalidateAllQueries();
+                } else {
+                    for (Long locationId : batch.mChangedLocationIds) {
+                        invalidateLocation(locationId);
+                    }
+                    for (Map.Entry<Long, Set<String>> changed
+                            : batch.mChangedLocationColumns.entrySet()) {
+                        if (!batch.mChangedLocationIds.contains(changed.getKey())) {
+                            invalidateLocationColumns(changed.getKey(), changed.getValue());
+                        }
+                    }
+                }
+                notifyChanges(collapseDayUris(batch.mNotifyUris));
+            } else {
+                // Locations inserted by the batch were rolled back
+                LocationIdCache.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the uris to notify for a batch: those it collected, with its days replaced by the
+     * whole weather table if there are more than MAX_DAY_NOTIFICATIONS of them.  A sync of all
+     * locations writes a couple of weeks for each, and every notification is an IPC and a
+     * requery for whoever is watching.
+     */
+    private static Set<Uri> collapseDayUris(Set<Uri> uris) {
+        int dayCount = 0;
+        for (Uri uri : uris) {
+            if (isWeatherUri(uri)) {
+                dayCount++;
+            }
+        }
+        if (dayCount <= MAX_DAY_NOTIFICATIONS) {
+            return uris;
+        }
+        Set<Uri> collapsed = new LinkedHashSet<Uri>();
+        collapsed.add(WeatherContract.WeatherEntry.CONTENT_URI);
+        for (Uri uri : uris) {
+            if (!isWeatherUri(uri)) {
+                collapsed.add(uri);
+            }
+        }
+        return collapsed;
+    }
+
+    private static boolean isWeatherUri(Uri uri) {
+        List<String> pathSegments = uri.getPathSegments();
+        return !pathSegments.isEmpty()
+                && WeatherContract.PATH_WEATHER.equals(pathSegments.get(0));
+    }
+
+    private void notifyChanges(Set<Uri> uris) {
+        for (Uri uri : uris) {
+            notifyChange(uri);
+        }
+    }
+
+    /**
+     * @return the uri of one day, weather/[location setting]/[date], which is what is notified
+     * when that day changes.  Observers watch their uri and everything below it, so this reaches
+     * those of the day, of its location and of the whole table, and leaves alone those of other
+     * days.  If the location can't be named, the whole table is.
+     */
+    private static Uri getDayUri(SQLiteDatabase db, Long locationId, Long date) {
+        String locationSetting = locationId != null ? resolveLocationSetting(db, locationId) : null;
+        if (locationSetting == null || date == null) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        // Stored dates are normalized already, so this is what buildWeatherLocationWithDate
+        // gives for the day
+        return WeatherContract.WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                .appendPath(Long.toString(date)).build();
+    }
+
+    /**
+     * @return the day uris, see getDayUri, of the weather rows a selection matches, or just
+     * the whole table if there are more than MAX_DAY_NOTIFICATIONS of them.
+     */
+    private static Set<Uri> getDayUris(SQLiteDatabase db, String selection,
+                                       String[] selectionArgs) {
+        Set<Uri> dayUris = new LinkedHashSet<Uri>();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null);
+        try {
+            if (cursor.getCount() > MAX_DAY_NOTIFICATIONS) {
+                dayUris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                return dayUris;
+            }
+            while (cursor.moveToNext()) {
+                dayUris.add(getDayUri(db, cursor.getLong(0), cursor.getLong(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return dayUris;
+    }
+
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mNotifyUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Drops the cached results of one location, or of all of them if the written row didn't
+     * name its location.
+     */
+    private void invalidateLocation(Long locationId) {
+        if (locationId == null) {
+            invalidateAllQueries();
+            return;
+        }
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mChangedLocationIds.add(locationId);
+        } else {
+            mQueryCache.invalidateLocation(locationId);
+        }
+    }
+
+    private void invalidateLocationColumns(long locationId, Set<String> columns) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            Set<String> changedColumns = batch.mChangedLocationColumns.get(locationId);
+            if (changedColumns == null) {
+                changedColumns = new HashSet<String>();
+                batch.mChangedLocationColumns.put(locationId, changedColumns);
+            }
+            changedColumns.addAll(columns);
+        } else {
+            mQueryCache.invalidateColumns(locationId, columns);
+        }
+    }
+
+    private void invalidateAllQueries() {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mInvalidateAll = true;
+        } else {
+            mQueryCache.invalidateAll();
+        }
+    }
+
+    private void weatherRowsWritten(SQLiteDatabase db, int rowCount) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mWeatherRowsWritten += rowCount;
+        } else if (rowCount >= WeatherDbHelper.CHECKPOINT_AFTER_ROWS) {
+            // Don't leave a big write sitting in the log for every reader to look through
+            WeatherDbHelper.checkpoint(db);
+        }
+    }
+
+    /**
+     * Reads the content hashes of the stored days that the given rows would overwrite.
+     *
+     * @return map from "location_id/date" to the stored hash, which may be null if the row was
+     * written without one.  Days that aren't stored have no entry.
+     */
+    private Map<String, Long> getStoredContentHashes(SQLiteDatabase db, ContentValues[] values) {
+        Map<String, Long> storedHashes = new HashMap<String, Long>(values.length * 2);
+        if (values.length == 0) {
+            return storedHashes;
+        }
+
+        // Only look at the locations and date range that are being written
+        Set<Long> locationIds = new HashSet<Long>();
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                continue;
+            }
+            locationIds.add(locationId);
+            minDate = Math.min(minDate, date);
+            maxDate = Math.max(maxDate, date);
+        }
+        if (locationIds.isEmpty()) {
+            return storedHashes;
+        }
+
+        StringBuilder selection = new StringBuilder(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                .append(" IN (");
+        for (Long locationId : locationIds) {
+            selection.append(locationId).append(',');
+        }
+        selection.setCharAt(selection.length() - 1, ')');
+        selection.append(" AND ").append(WeatherContract.WeatherEntry.COLUMN_DATE)
+                .append(" BETWEEN ? AND ?");
+
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE,
+                        WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH},
+                selection.toString(),
+                new String[]{Long.toString(minDate), Long.toString(maxDate)},
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                storedHashes.put(getRowKey(cursor.getLong(0), cursor.getLong(1)),
+                        cursor.isNull(2) ? null : cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return storedHashes;
+    }
+
+    /**
+     * Adds the content hashes of all stored days of one location to storedHashes, keyed like
+     * those of getStoredContentHashes().
+     */
+    private static void readStoredContentHashes(SQLiteDatabase db, long locationId,
+                                                Map<String, Long> storedHashes) {
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE,
+                        WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH},
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                storedHashes.put(getRowKey(locationId, cursor.getLong(0)),
+                        cursor.isNull(1) ? null : cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String getRowKey(Long locationId, Long date) {
+        return locationId + "/" + date;
+    }
+
+    /**
+     * Forgets the stored content hashes the batch has read, after a write other than an upsert
+     * may have changed the rows they describe.
+     */
+    private void forgetStoredContentHashes() {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mStoredHashes.clear();
+            batch.mHashedLocationIds.clear();
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash over the forecast columns of a weather row.  The location and date are
+     * left out since they identify the row rather than describe it.
+     */
+    static long computeContentHash(ContentValues values) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hashLong(hash, values.getAsLong(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+        hash = hashDouble(hash, values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+        hash = hashDouble(hash, values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+        hash = hashDouble(hash, values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY));
+        hash = hashDouble(hash, values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE));
+        hash = hashDouble(hash, values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED));
+        hash = hashDouble(hash, values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+
+        String description = values.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        if (description != null) {
+            for (int i = 0; i < description.length(); i++) {
+                hash = (hash ^ description.charAt(i)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long hashDouble(long hash, Double value) {
+        if (value == null) {
+            return hashNull(hash);
+        }
+        // Integer and floating point inputs for the same number must hash the same
+        return hashBits(hash, Double.doubleToLongBits(value));
+    }
+
+    private static long hashLong(long hash, Long value) {
+        if (value == null) {
+            return hashNull(hash);
+        }
+        return hashBits(hash, value);
+    }
+
+    private static long hashNull(long hash) {
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+
+    private static long hashBits(long hash, long bits) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (bits & 0xff)) * FNV_PRIME;
+            bits >>>= 8;
+        }
+        return hash;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,245 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Token-level reader for the OpenWeatherMap daily forecast response.  Instead of buffering the
+ * whole body into a String and building a JSONObject tree, the stream is consumed once and each
+ * day is handed to the {@link WeatherSource.Callbacks} as soon as its object has been read.
+ * <p/>
+ * OWM usually sends the "city" object before the "list" array, but JSON gives no ordering
+ * guarantee, so any days read before the city are held back until the location is known.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class ForecastJsonReader {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Number of columns every day has to provide before it is handed out
+    private static final int DAY_COLUMN_COUNT = 8;
+
+    private final WeatherSource.Callbacks mCallbacks;
+
+    private boolean mHasCity;
+    private long mLocationId;
+    private int mDayCount;
+    private ArrayList<ContentValues> mPendingDays;
+
+    ForecastJsonReader(WeatherSource.Callbacks callbacks) {
+        mCallbacks = callbacks;
+    }
+
+    /**
+     * Reads the whole response from the given reader.
+     *
+     * @return the "cod" value of the response, or HttpURLConnection.HTTP_OK if it had none.
+     * @throws IOException   if the stream could not be read
+     * @throws JSONException if the stream was read but does not look like a forecast
+     */
+    int read(Reader in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        int messageCode = HttpURLConnection.HTTP_OK;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // OWM sends this either as a number or as a string
+                    messageCode = reader.nextInt();
+                    if (messageCode != HttpURLConnection.HTTP_OK) {
+                        return messageCode;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader);
+                } else if (OWM_LIST.equals(name)) {
+                    readDays(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+
+        if (!mHasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        return messageCode;
+    }
+
+    private void readCity(JsonReader reader) throws IOException, JSONException {
+        String cityName = null;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(lat) || Double.isNaN(lon)) {
+            throw new JSONException("Incomplete " + OWM_CITY + " object");
+        }
+
+        mLocationId = mCallbacks.onCity(cityName, lat, lon);
+        mHasCity = true;
+
+        // Hand out any days that arrived before we knew where they belong
+        if (mPendingDays != null) {
+            for (int i = 0; i < mPendingDays.size(); i++) {
+                mCallbacks.onDay(i, mLocationId, mPendingDays.get(i));
+            }
+            mPendingDays = null;
+        }
+    }
+
+    private void readDays(JsonReader reader) throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            ContentValues weatherValues = readDay(reader);
+            if (mHasCity) {
+                mCallbacks.onDay(mDayCount, mLocationId, weatherValues);
+            } else {
+                if (mPendingDays == null) {
+                    mPendingDays = new ArrayList<ContentValues>();
+                }
+                mPendingDays.add(weatherValues);
+            }
+            mDayCount++;
+        }
+        reader.endArray();
+    }
+
+    private ContentValues readDay(JsonReader reader) throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues(DAY_COLUMN_COUNT + 2);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // Stored whole, as JSONObject.getInt() does, but sometimes sent with a fraction
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                        (int) reader.nextDouble());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                readTemperature(reader, weatherValues);
+            } else if (OWM_WEATHER.equals(name)) {
+                readWeather(reader, weatherValues);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (weatherValues.size() != DAY_COLUMN_COUNT) {
+            throw new JSONException("Incomplete day " + mDayCount + " in " + OWM_LIST);
+        }
+        return weatherValues;
+    }
+
+    private void readTemperature(JsonReader reader, ContentValues weatherValues) throws IOException {
+        // Temperatures are in a child object called "temp".  Try not to name variables
+        // "temp" when working with temperature.  It confuses everybody.
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+            } else if (OWM_MIN.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readWeather(JsonReader reader, ContentValues weatherValues) throws IOException {
+        // Description is in a child array called "weather", which is 1 element long.
+        // That element also contains a weather code.  Anything after it is skipped.
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, reader.nextString());
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, reader.nextInt());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+}
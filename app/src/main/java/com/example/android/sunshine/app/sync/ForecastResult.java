@@ -0,0 +1,53 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import java.util.ArrayList;
+
+/**
+ * Outcome of downloading and parsing the forecast for one location setting.  Nothing in here
+ * has been written to the weather table yet, so results for several locations can be fetched
+ * independently and then committed together.
+ */
+class ForecastResult {
+
+    final String mLocationSetting;
+
+    @SunshineSyncAdapter.LocationStatus
+    int mStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+
+    // True when the server answered 304 and what we already store is still current
+    boolean mNotModified;
+
+    // Validators of the response, stored once the days have been committed
+    ResponseValidators mValidators;
+
+    // Julian day (local time) of the first forecast day
+    int mJulianStartDay;
+
+    // Row id of the location, or UNKNOWN_LOCATION_ID if it is added along with the days
+    long mLocationId = SunshineSyncAdapter.UNKNOWN_LOCATION_ID;
+
+    // Row to add to the location table along with the days, or null if the location is stored
+    // already and the days carry its id
+    ContentValues mLocationValues;
+
+    // One entry per forecast day, in order, ready to be written to the weather table
+    final ArrayList<ContentValues> mWeatherValues = new ArrayList<ContentValues>();
+
+    // Points of the hourly forecast, without location key.  Empty if it couldn't be fetched,
+    // which doesn't keep the days from being stored.
+    final ArrayList<ContentValues> mHourlyValues = new ArrayList<ContentValues>();
+
+    ForecastResult(String locationSetting) {
+        mLocationSetting = locationSetting;
+    }
+
+    /**
+     * @return true if this result carries new days that should be written to the database.
+     */
+    boolean hasNewData() {
+        return mStatus == SunshineSyncAdapter.LOCATION_STATUS_OK && !mNotModified
+                && !mWeatherValues.isEmpty();
+    }
+}
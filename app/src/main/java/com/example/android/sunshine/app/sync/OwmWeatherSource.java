@@ -0,0 +1,282 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Build;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Daily and 3-hourly forecasts from OpenWeatherMap.  The base URLs can be swapped, which is how
+ * tests and benchmarks point the sync at a local server speaking the same protocol.
+ */
+class OwmWeatherSource implements WeatherSource {
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    static final String HOURLY_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast?";
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+    // Five days, every three hours, as far as OWM's free forecast goes
+    private static final int NUM_HOURLY_POINTS = 40;
+
+    private final String mBaseUrl;
+    private final String mHourlyBaseUrl;
+
+    OwmWeatherSource() {
+        this(FORECAST_BASE_URL, HOURLY_FORECAST_BASE_URL);
+    }
+
+    OwmWeatherSource(String baseUrl, String hourlyBaseUrl) {
+        mBaseUrl = baseUrl;
+        mHourlyBaseUrl = hourlyBaseUrl;
+    }
+
+    @Override
+    public URL getForecastUrl(String locationSetting) throws IOException {
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
+
+    @Override
+    public int decodeForecast(InputStream in, Callbacks callbacks)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Parse straight off the stream, without holding the body in memory
+            return new ForecastJsonReader(callbacks)
+                    .read(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+        }
+
+        return decodeForecastJson(readResponse(in), callbacks);
+    }
+
+    @Override
+    public URL getHourlyForecastUrl(String locationSetting) throws IOException {
+        Uri builtUri = Uri.parse(mHourlyBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_HOURLY_POINTS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
+
+    @Override
+    public int decodeHourlyForecast(InputStream in, HourlyCallbacks callbacks)
+            throws IOException, JSONException {
+        // At most NUM_HOURLY_POINTS small objects, not worth streaming
+        return decodeHourlyForecastJson(readResponse(in), callbacks);
+    }
+
+    private static String readResponse(InputStream in) throws IOException {
+        // Read the input stream into a String
+        StringBuilder buffer = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+            // But it does make debugging a *lot* easier if you print out the completed
+            // buffer for debugging.
+            buffer.append(line).append('\n');
+        }
+
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new IOException("Empty forecast response");
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need to construct the Strings needed for the wireframes.
+     * <p/>
+     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
+     * into an Object hierarchy for us.
+     */
+    static int decodeForecastJson(String forecastJsonStr, Callbacks callbacks)
+            throws JSONException {
+
+        // These are the names of the JSON objects that need to be extracted.
+
+        // Location information
+        final String OWM_CITY = "city";
+        final String OWM_CITY_NAME = "name";
+        final String OWM_COORD = "coord";
+
+        // Location coordinate
+        final String OWM_LATITUDE = "lat";
+        final String OWM_LONGITUDE = "lon";
+
+        // Weather information.  Each day's forecast info is an element of the "list" array.
+        final String OWM_LIST = "list";
+
+        final String OWM_PRESSURE = "pressure";
+        final String OWM_HUMIDITY = "humidity";
+        final String OWM_WINDSPEED = "speed";
+        final String OWM_WIND_DIRECTION = "deg";
+
+        // All temperatures are children of the "temp" object.
+        final String OWM_TEMPERATURE = "temp";
+        final String OWM_MAX = "max";
+        final String OWM_MIN = "min";
+
+        final String OWM_WEATHER = "weather";
+        final String OWM_DESCRIPTION = "main";
+        final String OWM_WEATHER_ID = "id";
+
+        final String OWM_MESSAGE_CODE = "cod";
+
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return errorCode;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        String cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        long locationId = callbacks.onCity(cityName, cityLatitude, cityLongitude);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            double pressure = dayForecast.getDouble(OWM_PRESSURE);
+            int humidity = dayForecast.getInt(OWM_HUMIDITY);
+            double windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+            double windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            String description = weatherObject.getString(OWM_DESCRIPTION);
+            int weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            double high = temperatureObject.getDouble(OWM_MAX);
+            double low = temperatureObject.getDouble(OWM_MIN);
+
+            ContentValues weatherValues = new ContentValues();
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+            callbacks.onDay(i, locationId, weatherValues);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    /**
+     * Reads the 3-hourly forecast.  Each element of its "list" is one point in time, with the
+     * measurements in "main" and "wind" rather than at the top level as in the daily forecast.
+     */
+    static int decodeHourlyForecastJson(String forecastJsonStr, HourlyCallbacks callbacks)
+            throws JSONException {
+        final String OWM_LIST = "list";
+        final String OWM_TIME = "dt";
+
+        final String OWM_MAIN = "main";
+        final String OWM_TEMPERATURE = "temp";
+        final String OWM_PRESSURE = "pressure";
+        final String OWM_HUMIDITY = "humidity";
+
+        final String OWM_WIND = "wind";
+        final String OWM_WINDSPEED = "speed";
+        final String OWM_WIND_DIRECTION = "deg";
+
+        final String OWM_WEATHER = "weather";
+        final String OWM_WEATHER_ID = "id";
+
+        final String OWM_MESSAGE_CODE = "cod";
+
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return errorCode;
+            }
+        }
+
+        JSONArray pointArray = forecastJson.getJSONArray(OWM_LIST);
+        for (int i = 0; i < pointArray.length(); i++) {
+            JSONObject point = pointArray.getJSONObject(i);
+            JSONObject mainObject = point.getJSONObject(OWM_MAIN);
+            JSONObject windObject = point.getJSONObject(OWM_WIND);
+            JSONObject weatherObject = point.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            ContentValues hourValues = new ContentValues();
+
+            // OWM sends seconds, we store milliseconds like everywhere else
+            hourValues.put(WeatherContract.HourlyEntry.COLUMN_TIME, point.getLong(OWM_TIME) * 1000);
+            hourValues.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+                    weatherObject.getInt(OWM_WEATHER_ID));
+            hourValues.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                    mainObject.getDouble(OWM_TEMPERATURE));
+            hourValues.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+                    mainObject.getDouble(OWM_HUMIDITY));
+            hourValues.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+                    mainObject.getDouble(OWM_PRESSURE));
+            hourValues.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                    windObject.getDouble(OWM_WINDSPEED));
+            hourValues.put(WeatherContract.HourlyEntry.COLUMN_DEGREES,
+                    windObject.getDouble(OWM_WIND_DIRECTION));
+
+            callbacks.onHour(hourValues);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.net.HttpURLConnection;
+
+/**
+ * The ETag / Last-Modified validators of a forecast response.  They are kept per location
+ * setting in the location table and replayed as If-None-Match / If-Modified-Since, so an
+ * unchanged forecast costs a 304 instead of a full download, parse and insert.
+ */
+class ResponseValidators {
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String[] VALIDATOR_PROJECTION = new String[]{
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+            WeatherContract.LocationEntry.COLUMN_VALIDATED_DATE
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_ETAG = 0;
+    private static final int INDEX_LAST_MODIFIED = 1;
+    private static final int INDEX_VALIDATED_DATE = 2;
+
+    final String mETag;
+    final String mLastModified;
+
+    ResponseValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    boolean isEmpty() {
+        return mETag == null && mLastModified == null;
+    }
+
+    /**
+     * Reads the validators the server sent with a response.
+     */
+    static ResponseValidators fromConnection(HttpURLConnection urlConnection) {
+        return new ResponseValidators(urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getHeaderField(HEADER_LAST_MODIFIED));
+    }
+
+    /**
+     * Turns the request into a conditional one.  Must be called before connecting.
+     */
+    void applyTo(HttpURLConnection urlConnection) {
+        if (mETag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, mETag);
+        }
+        if (mLastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, mLastModified);
+        }
+    }
+
+    /**
+     * Looks up the validators stored for a location.
+     *
+     * @param today the normalized date of today; validators from any other day are ignored
+     * @return the stored validators, or null if there are none that can be reused.
+     */
+    static ResponseValidators load(ContentResolver resolver, String locationSetting, long today) {
+        Cursor cursor = resolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                VALIDATOR_PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return null;
+        }
+
+        ResponseValidators validators = null;
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(INDEX_VALIDATED_DATE)
+                    && cursor.getLong(INDEX_VALIDATED_DATE) == today) {
+                validators = new ResponseValidators(cursor.getString(INDEX_ETAG),
+                        cursor.getString(INDEX_LAST_MODIFIED));
+            }
+        } finally {
+            cursor.close();
+        }
+        return validators == null || validators.isEmpty() ? null : validators;
+    }
+
+    /**
+     * @return an operation that stores these validators for a location, replacing whatever was
+     * there before.
+     * @param validatedDate the normalized date the forecast days were computed from
+     */
+    ContentProviderOperation buildSaveOperation(String locationSetting, long validatedDate) {
+        return ContentProviderOperation.newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValue(WeatherContract.LocationEntry.COLUMN_ETAG, mETag)
+                .withValue(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, mLastModified)
+                .withValue(WeatherContract.LocationEntry.COLUMN_VALIDATED_DATE, validatedDate)
+                .withSelection(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{locationSetting})
+                .build();
+    }
+}
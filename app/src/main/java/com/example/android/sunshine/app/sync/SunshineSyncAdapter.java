@@ -7,11 +7,13 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,6 +24,7 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
@@ -32,11 +35,13 @@ import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.SyncTimingLog;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTimingEntry;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -47,21 +52,25 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.Vector;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
@@ -75,7 +84,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather, in seconds, until the SyncScheduler has
+    // learned a better one.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
@@ -123,8 +133,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Sync extra that asks for every stored location to be refreshed, not just the preferred one
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "all_locations";
+
+    // Forecast downloads are network bound, so allow a few more than there are cores
+    private static final int MAX_PARALLEL_FETCHES =
+            Math.min(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    static final long UNKNOWN_LOCATION_ID = -1;
+
+    // The sync account once it is known to exist, so AccountManager is only asked once per
+    // process.  The account has no credentials and nothing in the app removes it.
+    private static volatile Account sSyncAccount;
+
     private GoogleApiClient mGoogleApiClient;
 
+    private WeatherSource mWeatherSource = new OwmWeatherSource();
+
+    // Start time of the sync in progress, which tags its stage timings
+    private volatile long mSyncId;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
 
@@ -138,275 +166,553 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        mSyncId = System.currentTimeMillis();
+        long syncStart = System.nanoTime();
+        try {
+            performSync(extras, syncResult);
+        } finally {
+            recordTiming(SyncTimingEntry.STAGE_TOTAL, syncStart);
+            SyncTrigger.onSyncFinished(getContext(), extras);
+        }
+    }
+
+    private void performSync(Bundle extras, SyncResult syncResult) {
         String locationQuery = Utility.getPreferredLocation(getContext());
+        boolean allLocations = extras != null
+                && extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false);
+
+        // A location the user has just switched to gets its sync even while backing off
+        long backoffMillis = allLocations ? SyncBackoff.getRemainingMillis(getContext())
+                : SyncBackoff.getRemainingMillis(getContext(), locationQuery);
+        if (backoffMillis > 0) {
+            // The server failed recently.  Don't wake the radio just to hear that again.
+            Log.d(LOG_TAG, "Backing off for another " + backoffMillis / 1000 + "s");
+            syncResult.delayUntil = (System.currentTimeMillis() + backoffMillis) / 1000;
+            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            return;
+        }
+
+        if (allLocations) {
+            syncAllLocations(locationQuery, syncResult);
+            return;
+        }
+
+        ForecastResult result = fetchForecast(locationQuery, UNKNOWN_LOCATION_ID);
+        if (result.hasNewData()) {
+            fetchHourlyForecast(result);
+        }
+        List<ForecastResult> results = Collections.singletonList(result);
+        if (result.hasNewData()) {
+            sendTodayToWear(result);
+            storeWeatherData(results, syncResult);
+        } else if (result.mNotModified) {
+            Log.d(LOG_TAG, "Sync Complete. Forecast not modified");
+        }
+        updateBackoff(results, locationQuery, syncResult);
+        setLocationStatus(getContext(), result.mStatus);
+    }
+
+    /**
+     * Replaces the server forecasts are downloaded from, e.g. with a local fake for tests and
+     * benchmarks.
+     */
+    void setWeatherSource(WeatherSource weatherSource) {
+        mWeatherSource = weatherSource;
+    }
+
+    /**
+     * Adds the time since startNanos, taken from System.nanoTime(), to the SyncTimingLog as
+     * the given stage of the sync in progress.
+     */
+    private void recordTiming(String stage, long startNanos) {
+        SyncTimingLog.record(mSyncId, stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Reports failed locations in the sync statistics and moves the circuit breaker.  Any
+     * location that synced counts as the server being up; otherwise, if the server failed for
+     * any of them, the breaker opens and the framework is told to hold off until it closes.
+     * A successful sync also tells the SyncScheduler how much of the forecast changed.
+     */
+    private void updateBackoff(List<ForecastResult> results, String preferredLocation,
+                               SyncResult syncResult) {
+        boolean serverUp = false;
+        boolean serverFailed = false;
+        for (ForecastResult result : results) {
+            switch (result.mStatus) {
+                case LOCATION_STATUS_OK:
+                    serverUp = true;
+                    break;
+                case LOCATION_STATUS_SERVER_DOWN:
+                    syncResult.stats.numIoExceptions++;
+                    serverFailed = true;
+                    break;
+                case LOCATION_STATUS_SERVER_INVALID:
+                    syncResult.stats.numParseExceptions++;
+                    serverFailed = true;
+                    break;
+                default:
+                    // An unknown location is the user's problem, not the server's
+                    break;
+            }
+        }
+
+        if (serverUp) {
+            SyncBackoff.recordSuccess(getContext());
+            SyncScheduler.recordSyncOutcome(getContext(),
+                    (int) syncResult.stats.numInserts, (int) syncResult.stats.numEntries);
+        } else if (serverFailed) {
+            long openUntil = SyncBackoff.recordFailure(getContext(), preferredLocation);
+            Log.d(LOG_TAG, "Server failed, backing off until " + openUntil);
+            syncResult.delayUntil = openUntil / 1000;
+        }
+    }
+
+    /**
+     * Refreshes every location stored in the database, plus the preferred one, downloading and
+     * parsing up to MAX_PARALLEL_FETCHES forecasts at a time.  A location that fails only loses
+     * its own update; everything that succeeded is committed in a single batch, so observers
+     * see one transaction for the whole run, and a single change notification once it covers
+     * more days than WeatherProvider names one by one.
+     */
+    private void syncAllLocations(String preferredLocation, SyncResult syncResult) {
+        // location setting -> location row id, in the order the locations were added
+        Map<String, Long> locations = new LinkedHashMap<String, Long>();
+        Cursor locationCursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null,
+                null,
+                WeatherContract.LocationEntry._ID + " ASC");
+        if (locationCursor != null) {
+            while (locationCursor.moveToNext()) {
+                locations.put(locationCursor.getString(1), locationCursor.getLong(0));
+            }
+            locationCursor.close();
+        }
+        if (!locations.containsKey(preferredLocation)) {
+            locations.put(preferredLocation, UNKNOWN_LOCATION_ID);
+        }
+
+        int threadCount = Math.min(locations.size(), MAX_PARALLEL_FETCHES);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<ForecastResult>> pending = new ArrayList<Future<ForecastResult>>(locations.size());
+        for (final Map.Entry<String, Long> location : locations.entrySet()) {
+            pending.add(executor.submit(new Callable<ForecastResult>() {
+                @Override
+                public ForecastResult call() {
+                    ForecastResult result = fetchForecast(location.getKey(), location.getValue());
+                    if (result.hasNewData()) {
+                        fetchHourlyForecast(result);
+                    }
+                    return result;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        List<ForecastResult> completed = new ArrayList<ForecastResult>(locations.size());
+        List<ForecastResult> updated = new ArrayList<ForecastResult>(locations.size());
+        ForecastResult preferredResult = null;
+        for (Future<ForecastResult> future : pending) {
+            ForecastResult result;
+            try {
+                result = future.get();
+            } catch (InterruptedException e) {
+                // The sync was cancelled; don't commit a partial run
+                Log.d(LOG_TAG, "Sync interrupted");
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // One broken location doesn't get to take the others down with it
+                Log.e(LOG_TAG, "Error syncing location", e.getCause());
+                continue;
+            }
+
+            completed.add(result);
+            if (result.mLocationSetting.equals(preferredLocation)) {
+                preferredResult = result;
+            }
+            if (result.hasNewData()) {
+                updated.add(result);
+            } else if (result.mStatus != LOCATION_STATUS_OK) {
+                Log.w(LOG_TAG, "Could not sync " + result.mLocationSetting + ": " + result.mStatus);
+            }
+        }
+
+        if (preferredResult != null && preferredResult.hasNewData()) {
+            sendTodayToWear(preferredResult);
+        }
+        storeWeatherData(updated, syncResult);
+        updateBackoff(completed, preferredLocation, syncResult);
+
+        // The status shown in the UI is about the preferred location only
+        if (preferredResult != null) {
+            setLocationStatus(getContext(), preferredResult.mStatus);
+        }
+    }
+
+    /**
+     * Downloads and parses the forecast of a single location.  Nothing is written to the weather
+     * table here, so this is safe to run for several locations at once.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param locationId      The row id of the location, or UNKNOWN_LOCATION_ID to look it up
+     *                        (and add it if needed) once the response names the city.
+     */
+    ForecastResult fetchForecast(String locationSetting, long locationId) {
+        ForecastResult result = new ForecastResult(locationSetting);
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        TimedInputStream inputStream = null;
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
+            long connectStart = System.nanoTime();
+            URL url = mWeatherSource.getForecastUrl(locationSetting);
+
+            // Create the request to the weather server, and open the connection
             urlConnection = (HttpURLConnection) url.openConnection();
             urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            // If we already hold today's forecast for this location, only ask for it again
+            // in case it changed.
+            ResponseValidators storedValidators = ResponseValidators.load(
+                    getContext().getContentResolver(), locationSetting,
+                    WeatherContract.normalizeDate(System.currentTimeMillis()));
+            if (storedValidators != null) {
+                storedValidators.applyTo(urlConnection);
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            urlConnection.connect();
+            int responseCode = urlConnection.getResponseCode();
+            recordTiming(SyncTimingEntry.STAGE_CONNECT, connectStart);
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we have stored is still current, so there is nothing to parse, store
+                // or tell anyone about.
+                result.mNotModified = true;
+                result.mStatus = LOCATION_STATUS_OK;
+                return result;
             }
+            result.mValidators = ResponseValidators.fromConnection(urlConnection);
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            InputStream connectionStream = urlConnection.getInputStream();
+            if (connectionStream == null) {
+                // Nothing to do.
+                result.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                return result;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            inputStream = new TimedInputStream(connectionStream);
+            readForecast(inputStream, result, locationId);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            result.mStatus = LOCATION_STATUS_SERVER_DOWN;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            result.mStatus = LOCATION_STATUS_SERVER_INVALID;
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
-            if (reader != null) {
+            if (inputStream != null) {
                 try {
-                    reader.close();
+                    inputStream.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
         }
-        return;
+        return result;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p/>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Downloads the hourly forecast of a location whose daily forecast just changed, into
+     * result.mHourlyValues.  The two are updated together, so a 304 for the days means the
+     * hours are skipped too.  Failing here only costs the hours: the days are still stored,
+     * and the points already stored stay until the next sync.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
+    void fetchHourlyForecast(ForecastResult result) {
+        long hourlyStart = System.nanoTime();
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
 
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            URL url = mWeatherSource.getHourlyForecastUrl(result.mLocationSetting);
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            urlConnection.connect();
+
+            inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                return;
+            }
+            final ArrayList<ContentValues> hours = new ArrayList<ContentValues>();
+            int messageCode = mWeatherSource.decodeHourlyForecast(inputStream,
+                    new WeatherSource.HourlyCallbacks() {
+                        @Override
+                        public void onHour(ContentValues hourValues) {
+                            hours.add(hourValues);
+                        }
+                    });
+            if (messageCode == HttpURLConnection.HTTP_OK) {
+                result.mHourlyValues.addAll(hours);
+            } else {
+                Log.w(LOG_TAG, "No hourly forecast for " + result.mLocationSetting + ": " + messageCode);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching hourly forecast", e);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error decoding hourly forecast", e);
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
+            recordTiming(SyncTimingEntry.STAGE_HOURLY, hourlyStart);
+        }
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+    /**
+     * Has the weather source decode a forecast response and turns each day it reports into a
+     * row for the weather table.
+     * <p/>
+     * OWM returns daily forecasts based upon the local time of the city that is being asked
+     * for, which means that we need to know the GMT offset to translate this data properly.
+     * Since the days are also sent in-order and the first day is always the current day, we take
+     * advantage of that to get a nice normalized UTC date for all of our weather.
+     * <p/>
+     * The time spent waiting on the network and parsing are recorded as separate stages, even
+     * though they interleave.
+     */
+    private void readForecast(TimedInputStream inputStream, final ForecastResult result,
+                              final long knownLocationId)
+            throws IOException, JSONException {
+        long decodeStart = System.nanoTime();
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        final int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        final Time utcDayTime = new Time();
+
+        int messageCode = mWeatherSource.decodeForecast(inputStream, new WeatherSource.Callbacks() {
+            @Override
+            public long onCity(String cityName, double lat, double lon) {
+                long locationId = knownLocationId;
+                if (locationId == UNKNOWN_LOCATION_ID) {
+                    // Once the provider has seen a location, its id is remembered for the whole
+                    // process
+                    locationId = LocationIdCache.get(result.mLocationSetting);
+                }
+                if (locationId == LocationIdCache.UNKNOWN) {
+                    // Otherwise the location is added along with the days, which get its id then
+                    result.mLocationValues =
+                            buildLocationValues(result.mLocationSetting, cityName, lat, lon);
+                    locationId = UNKNOWN_LOCATION_ID;
+                }
+                result.mLocationId = locationId;
+                return locationId;
+            }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+            @Override
+            public void onDay(int dayIndex, long locationId, ContentValues weatherValues) {
+                if (locationId != UNKNOWN_LOCATION_ID) {
+                    weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                }
+                // Cheating to convert this to UTC time, which is what we want anyhow
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        utcDayTime.setJulianDay(julianStartDay + dayIndex));
+                result.mWeatherValues.add(weatherValues);
+            }
+        });
+
+        long downloadNanos = inputStream.getReadNanos();
+        long decodeNanos = System.nanoTime() - decodeStart;
+        SyncTimingLog.record(mSyncId, SyncTimingEntry.STAGE_DOWNLOAD, downloadNanos);
+        SyncTimingLog.record(mSyncId, SyncTimingEntry.STAGE_PARSE, decodeNanos - downloadNanos);
+
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                result.mJulianStartDay = julianStartDay;
+                result.mStatus = LOCATION_STATUS_OK;
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                result.mStatus = LOCATION_STATUS_INVALID;
+                break;
+            default:
+                result.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                break;
+        }
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Writes freshly parsed forecasts to the provider, archives past days, drops past hourly
+     * points and lets everything that displays the weather know about the new data.  New
+     * locations, every day and point of every location, the archiving, the deletes and the
+     * response validators (so the next sync can ask whether each forecast changed) all go into
+     * one batch.  The provider applies it in a
+     * single transaction and notifies its observers once, when it commits.
+     */
+    private void storeWeatherData(List<ForecastResult> results, SyncResult syncResult) {
+        int rowCount = 0;
+        int hourCount = 0;
+        int julianStartDay = Integer.MAX_VALUE;
+        for (ForecastResult result : results) {
+            rowCount += result.mWeatherValues.size();
+            hourCount += result.mHourlyValues.size();
+            julianStartDay = Math.min(julianStartDay, result.mJulianStartDay);
+        }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+        // add to database
+        if (rowCount > 0) {
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>(
+                            rowCount + hourCount + 3 * results.size() + 1);
+
+            // New locations first, so the days can take their ids from the results
+            int[] locationOperations = new int[results.size()];
+            for (int i = 0; i < results.size(); i++) {
+                ForecastResult result = results.get(i);
+                locationOperations[i] = -1;
+                if (result.mLocationValues != null) {
+                    locationOperations[i] = operations.size();
+                    operations.add(ContentProviderOperation
+                            .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                            .withValues(result.mLocationValues)
+                            .build());
+                }
+            }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+            // The provider only writes days whose forecast changed
+            int firstDayOperation = operations.size();
+            Uri upsertUri = WeatherContract.WeatherEntry.buildWeatherUpsertUri();
+            for (int i = 0; i < results.size(); i++) {
+                for (ContentValues weatherValues : results.get(i).mWeatherValues) {
+                    ContentProviderOperation.Builder builder =
+                            ContentProviderOperation.newUpdate(upsertUri).withValues(weatherValues);
+                    if (locationOperations[i] != -1) {
+                        builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                                locationOperations[i]);
+                    }
+                    operations.add(builder.build());
+                }
+            }
 
+            // move past days to the history table, so the weather table doesn't build up an
+            // endless history
+            int deleteOperation = operations.size();
             Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-
-                if (i == 0) {
-                    Log.d(LOG_TAG, "Preparing wear data");
-                    sendWearData(weatherId, high, low);
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.buildWeatherArchiveUri())
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))})
+                    .build());
+
+            // Same for the hourly points of each location, which then keep to a few days' worth.
+            // New points replace stored ones at the same time.
+            for (int i = 0; i < results.size(); i++) {
+                ForecastResult result = results.get(i);
+                if (result.mLocationId != UNKNOWN_LOCATION_ID) {
+                    // By location, so the delete runs on the (location_id, time) index
+                    operations.add(ContentProviderOperation
+                            .newDelete(WeatherContract.HourlyEntry.CONTENT_URI)
+                            .withSelection(WeatherContract.HourlyEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                            WeatherContract.HourlyEntry.COLUMN_TIME + " < ?",
+                                    new String[]{Long.toString(result.mLocationId),
+                                            Long.toString(dayTime.setJulianDay(result.mJulianStartDay))})
+                            .build());
+                }
+                for (ContentValues hourValues : result.mHourlyValues) {
+                    ContentProviderOperation.Builder builder = ContentProviderOperation
+                            .newInsert(WeatherContract.HourlyEntry.CONTENT_URI)
+                            .withValues(hourValues);
+                    if (locationOperations[i] != -1) {
+                        builder.withValueBackReference(WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+                                locationOperations[i]);
+                    } else {
+                        builder.withValue(WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+                                result.mLocationId);
+                    }
+                    operations.add(builder.build());
                 }
             }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+            for (ForecastResult result : results) {
+                operations.add(result.mValidators.buildSaveOperation(result.mLocationSetting,
+                        dayTime.setJulianDay(result.mJulianStartDay)));
+            }
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+            long stageStart = System.nanoTime();
+            ContentProviderResult[] batchResults;
+            try {
+                batchResults = getContext().getContentResolver()
+                        .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, "Error storing weather", e);
+                syncResult.databaseError = true;
+                return;
+            } catch (OperationApplicationException e) {
+                Log.e(LOG_TAG, "Error storing weather", e);
+                syncResult.databaseError = true;
+                return;
+            } finally {
+                recordTiming(SyncTimingEntry.STAGE_APPLY_BATCH, stageStart);
+            }
 
+            int changedCount = 0;
+            for (int i = firstDayOperation; i < deleteOperation; i++) {
+                changedCount += batchResults[i].count;
+            }
+            int deletedCount = batchResults[deleteOperation].count;
+
+            // If no day changed, the widgets and Muzei already show what we have.
+            if (changedCount > 0) {
+                stageStart = System.nanoTime();
                 updateWidgets();
+                recordTiming(SyncTimingEntry.STAGE_WIDGETS, stageStart);
+
+                stageStart = System.nanoTime();
                 updateMuzei();
-                notifyWeather();
+                recordTiming(SyncTimingEntry.STAGE_MUZEI, stageStart);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            stageStart = System.nanoTime();
+            notifyWeather();
+            recordTiming(SyncTimingEntry.STAGE_NOTIFICATION, stageStart);
+
+            syncResult.stats.numEntries += rowCount;
+            syncResult.stats.numInserts += changedCount;
+            syncResult.stats.numDeletes += deletedCount;
+            Log.d(LOG_TAG, "Sync Complete. " + changedCount + " of " + rowCount
+                    + " days changed, " + hourCount + " hourly points stored for "
+                    + results.size() + " location(s)");
         }
     }
 
+    private void sendTodayToWear(ForecastResult result) {
+        Log.d(LOG_TAG, "Preparing wear data");
+        long wearStart = System.nanoTime();
+        ContentValues today = result.mWeatherValues.get(0);
+        sendWearData(today.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+        recordTiming(SyncTimingEntry.STAGE_WEAR, wearStart);
+    }
+
     private void sendWearData(int weatherId, double high, double low) {
         if (mGoogleApiClient == null) {
             Log.e(LOG_TAG, "Google api client not initialized");
@@ -563,53 +869,28 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to build the row for a new location in the weather database.  It is
+     * inserted in the same batch as the location's forecast, see storeWeatherData.
      *
      * @param locationSetting The location string used to request updates from the server.
      * @param cityName        A human-readable city name, e.g "Mountain View"
      * @param lat             the latitude of the city
      * @param lon             the longitude of the city
-     * @return the row ID of the added location.
+     * @return the values of the location row.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    static ContentValues buildLocationValues(String locationSetting, String cityName,
+                                             double lat, double lon) {
+        // Now that the content provider is set up, inserting rows of data is pretty simple.
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        return locationValues;
     }
 
     /**
@@ -632,16 +913,49 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter refresh every stored location immediately
      *
      * @param context The context used to access the account service
      */
-    public static void syncImmediately(Context context) {
+    public static void syncAllLocationsImmediately(Context context) {
+        if (SyncBackoff.isOpen(context)) {
+            Log.d(SunshineSyncAdapter.class.getSimpleName(), "Backing off, not syncing");
+            return;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        bundle.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
+        Account account = getSyncAccount(context);
+        if (account == null) {
+            return;
+        }
+        ContentResolver.requestSync(account, context.getString(R.string.content_authority),
+                bundle);
+    }
+
+    /**
+     * Helper method to have the sync adapter sync immediately.  Calls that come in bursts are
+     * merged into a single sync by {@link SyncTrigger}.
+     *
+     * @param context The context used to access the account service
+     * @return a handle to wait for the sync with
+     */
+    public static SyncTrigger.PendingSync syncImmediately(Context context) {
+        return SyncTrigger.requestSync(context);
+    }
+
+    /**
+     * Helper method to have the sync adapter sync immediately after the preferred location
+     * changed to locationSetting.
+     *
+     * @param context         The context used to access the account service
+     * @param locationSetting The new preferred location
+     * @return a handle to wait for the sync with
+     */
+    public static SyncTrigger.PendingSync syncImmediately(Context context,
+                                                          String locationSetting) {
+        return SyncTrigger.requestSync(context, locationSetting);
     }
 
     /**
@@ -653,6 +967,24 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
      * @return a fake account.
      */
     public static Account getSyncAccount(Context context) {
+        Account account = sSyncAccount;
+        if (account != null) {
+            return account;
+        }
+
+        long lookupStart = System.nanoTime();
+        try {
+            account = getOrCreateSyncAccount(context);
+            sSyncAccount = account;
+            return account;
+        } finally {
+            // Account lookups happen outside of any sync, so they get a sync id of their own
+            SyncTimingLog.record(System.currentTimeMillis(), SyncTimingEntry.STAGE_ACCOUNT,
+                    System.nanoTime() - lookupStart);
+        }
+    }
+
+    private static Account getOrCreateSyncAccount(Context context) {
         // Get an instance of the Android account manager
         AccountManager accountManager =
                 (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
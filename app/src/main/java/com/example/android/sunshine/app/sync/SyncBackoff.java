@@ -0,0 +1,125 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Random;
+
+/**
+ * Circuit breaker for the weather server.  Every failed sync doubles the time we stay away from
+ * the server (with jitter, so devices that failed together don't all come back together), and
+ * while the breaker is open no sync is started.  The first sync after the wait is a trial: if it
+ * succeeds the breaker closes, otherwise it opens again for longer.
+ * <p/>
+ * The breaker remembers the location that was being synced when it opened, and only holds back
+ * syncs of that location.  When the user picks another one we try the server for it right away
+ * rather than leave them looking at nothing until the wait is over.
+ * <p/>
+ * The state lives in the default SharedPreferences so it survives the sync process being killed.
+ * Like setLocationStatus, the writes use commit and should not happen on the UI thread.
+ */
+public class SyncBackoff {
+
+    // First wait after a failure, in milliseconds: 5 minutes
+    static final long BASE_DELAY_MILLIS = 5 * 60 * 1000;
+    // Longest we will ever wait, in milliseconds: 6 hours
+    static final long MAX_DELAY_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static final Random sRandom = new Random();
+
+    private SyncBackoff() {
+    }
+
+    /**
+     * @return true if syncs should not be attempted right now.
+     */
+    public static boolean isOpen(Context context) {
+        return getRemainingMillis(context) > 0;
+    }
+
+    /**
+     * @return true if syncs of the given location should not be attempted right now.
+     */
+    public static boolean isOpenFor(Context context, String locationSetting) {
+        return getRemainingMillis(context, locationSetting) > 0;
+    }
+
+    /**
+     * @return how long the breaker stays open, in milliseconds, or 0 if it is closed.
+     */
+    public static long getRemainingMillis(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long openUntil = prefs.getLong(context.getString(R.string.pref_sync_backoff_until_key), 0);
+        return Math.max(0, openUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * @return how long the breaker holds back syncs of the given location, in milliseconds, or
+     * 0 if it is closed or opened while another location was being synced.
+     */
+    public static long getRemainingMillis(Context context, String locationSetting) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String openedFor = prefs.getString(
+                context.getString(R.string.pref_sync_backoff_location_key), null);
+        if (openedFor != null && !TextUtils.equals(openedFor, locationSetting)) {
+            return 0;
+        }
+        return getRemainingMillis(context);
+    }
+
+    /**
+     * Records a failed sync and opens the breaker.
+     *
+     * @param locationSetting the preferred location at the time of the sync
+     * @return the time until which syncs should be held off, in milliseconds since the epoch.
+     */
+    static long recordFailure(Context context, String locationSetting) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String failureCountKey = context.getString(R.string.pref_sync_failure_count_key);
+        int failureCount = prefs.getInt(failureCountKey, 0) + 1;
+
+        long openUntil = System.currentTimeMillis() + computeDelayMillis(failureCount, sRandom);
+        prefs.edit()
+                .putInt(failureCountKey, failureCount)
+                .putLong(context.getString(R.string.pref_sync_backoff_until_key), openUntil)
+                .putString(context.getString(R.string.pref_sync_backoff_location_key),
+                        locationSetting)
+                .commit();
+        return openUntil;
+    }
+
+    /**
+     * Records a successful sync and closes the breaker.
+     */
+    static void recordSuccess(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String failureCountKey = context.getString(R.string.pref_sync_failure_count_key);
+        if (prefs.getInt(failureCountKey, 0) == 0) {
+            // Nothing to reset, don't bother writing
+            return;
+        }
+        prefs.edit()
+                .remove(failureCountKey)
+                .remove(context.getString(R.string.pref_sync_backoff_until_key))
+                .remove(context.getString(R.string.pref_sync_backoff_location_key))
+                .commit();
+    }
+
+    /**
+     * Exponential delay for the given number of consecutive failures, capped at
+     * MAX_DELAY_MILLIS.  The result is picked at random from the upper half of that delay.
+     */
+    static long computeDelayMillis(int failureCount, Random random) {
+        long delay = MAX_DELAY_MILLIS;
+        // Past 2^12 the cap has long been reached, and the shift below would overflow
+        if (failureCount <= 12) {
+            delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (failureCount - 1));
+        }
+        long halfDelay = delay / 2;
+        return halfDelay + (long) (random.nextDouble() * halfDelay);
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Calendar;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Picks the periodic sync interval instead of always using SYNC_INTERVAL.  Three things are
+ * taken into account:
+ * <ul>
+ * <li>how much recent syncs changed: a forecast that keeps coming back identical is synced less
+ * often, up to MAX_INTERVAL</li>
+ * <li>when the user usually looks at the weather (app, widgets, watch face): if that is about to
+ * happen, we don't stretch past SYNC_INTERVAL so they see fresh data</li>
+ * <li>how old the data is: if the last successful sync is already older than SYNC_INTERVAL, we
+ * catch up at MIN_INTERVAL</li>
+ * </ul>
+ * All state lives in the default SharedPreferences.
+ */
+public class SyncScheduler {
+
+    public static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // Bounds of the periodic sync interval, in seconds
+    static final int MIN_INTERVAL = SunshineSyncAdapter.SYNC_INTERVAL / 3;
+    static final int MAX_INTERVAL = SunshineSyncAdapter.SYNC_INTERVAL * 4;
+
+    // Share of changed days at and above which we sync at the regular interval
+    static final float HIGH_VOLATILITY = 0.5f;
+    // Weight of the latest sync in the moving average of changed days
+    static final float VOLATILITY_WEIGHT = 0.3f;
+
+    // Every hour scales the recorded user visits down by this much, so the activity histogram
+    // follows changing habits.  A visit counts half after about six days.
+    static final double ACTIVITY_DECAY_PER_HOUR = 0.995;
+    // An hour counts as busy when it sees this many times its fair (1/24) share of activity
+    static final float BUSY_HOUR_FACTOR = 1.5f;
+
+    // Don't re-register the periodic sync for changes smaller than this, in seconds
+    private static final int RESCHEDULE_THRESHOLD = 15 * 60;
+
+    private static final int HOURS_PER_DAY = 24;
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+
+    // Records visits away from the caller's thread, one at a time so none of them is lost
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * Remembers that the user looked at the weather now.  If what they are looking at is already
+     * old, the periodic sync is also brought forward.  Safe to call from the main thread: the
+     * work is done in the background.
+     */
+    public static void recordUserActivity(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final long now = System.currentTimeMillis();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                recordUserActivity(appContext, now);
+            }
+        });
+    }
+
+    private static void recordUserActivity(Context context, long now) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String activityKey = context.getString(R.string.pref_sync_activity_key);
+        String decayedKey = context.getString(R.string.pref_sync_activity_decayed_key);
+        float[] activity = parseActivity(prefs.getString(activityKey, null));
+
+        long lastDecayed = prefs.getLong(decayedKey, now);
+        decayActivity(activity, now - lastDecayed);
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        activity[calendar.get(Calendar.HOUR_OF_DAY)] += 1f;
+
+        prefs.edit()
+                .putString(activityKey, formatActivity(activity))
+                .putLong(decayedKey, now)
+                .apply();
+
+        reschedule(context);
+    }
+
+    /**
+     * Scales the activity histogram down for the time passed since it was last decayed, however
+     * many visits there were in between.
+     */
+    static void decayActivity(float[] activity, long elapsedMillis) {
+        if (elapsedMillis <= 0) {
+            // Nothing passed, or the clock was set back
+            return;
+        }
+        float decay = (float) Math.pow(ACTIVITY_DECAY_PER_HOUR,
+                (double) elapsedMillis / HOUR_IN_MILLIS);
+        for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+            activity[hour] *= decay;
+        }
+    }
+
+    /**
+     * Folds the outcome of a successful sync into the schedule and, if the best interval has
+     * moved, re-registers the periodic sync.  Call from the sync thread.
+     *
+     * @param changedDays how many forecast days were actually written
+     * @param totalDays   how many forecast days were received; 0 if the server said not modified
+     */
+    static void recordSyncOutcome(Context context, int changedDays, int totalDays) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String volatilityKey = context.getString(R.string.pref_sync_volatility_key);
+
+        float changeRatio = totalDays == 0 ? 0f : (float) changedDays / totalDays;
+        // Until we know better, assume everything changes
+        float volatility = prefs.getFloat(volatilityKey, 1f);
+        volatility += VOLATILITY_WEIGHT * (changeRatio - volatility);
+
+        prefs.edit()
+                .putFloat(volatilityKey, volatility)
+                .putLong(context.getString(R.string.pref_last_sync_key), System.currentTimeMillis())
+                .commit();
+
+        reschedule(context);
+    }
+
+    /**
+     * Recomputes the interval from the stored signals and updates the periodic sync if it
+     * moved by more than RESCHEDULE_THRESHOLD.
+     */
+    public static void reschedule(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        float volatility = prefs.getFloat(context.getString(R.string.pref_sync_volatility_key), 1f);
+        float[] activity = parseActivity(
+                prefs.getString(context.getString(R.string.pref_sync_activity_key), null));
+        long lastSync = prefs.getLong(context.getString(R.string.pref_last_sync_key), 0);
+        long dataAgeMillis = lastSync == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - lastSync;
+
+        int interval = computeInterval(volatility, activity,
+                Calendar.getInstance().get(Calendar.HOUR_OF_DAY), dataAgeMillis);
+
+        String intervalKey = context.getString(R.string.pref_sync_interval_key);
+        int currentInterval = prefs.getInt(intervalKey, SunshineSyncAdapter.SYNC_INTERVAL);
+        if (Math.abs(interval - currentInterval) < RESCHEDULE_THRESHOLD) {
+            return;
+        }
+
+        Log.d(LOG_TAG, "Sync interval " + currentInterval + "s -> " + interval + "s");
+        SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+        prefs.edit().putInt(intervalKey, interval).apply();
+    }
+
+    /**
+     * @param volatility    moving average of the share of days each sync changed, 0 to 1
+     * @param activity      decayed count of user visits for each hour of the day
+     * @param currentHour   the hour of the day right now
+     * @param dataAgeMillis time since the last successful sync
+     * @return the periodic sync interval to use, in seconds
+     */
+    static int computeInterval(float volatility, float[] activity, int currentHour,
+                               long dataAgeMillis) {
+        if (dataAgeMillis > SunshineSyncAdapter.SYNC_INTERVAL * 1000L) {
+            // We're already behind, catch up
+            return MIN_INTERVAL;
+        }
+
+        // Stretch linearly from SYNC_INTERVAL when lots changes, to MAX_INTERVAL when nothing does
+        float calm = 1f - Math.min(1f, Math.max(0f, volatility) / HIGH_VOLATILITY);
+        int interval = SunshineSyncAdapter.SYNC_INTERVAL
+                + Math.round(calm * (MAX_INTERVAL - SunshineSyncAdapter.SYNC_INTERVAL));
+
+        if (interval > SunshineSyncAdapter.SYNC_INTERVAL
+                && isBusyAhead(activity, currentHour, SunshineSyncAdapter.SYNC_INTERVAL / 3600)) {
+            // The user is likely to look soon, so don't let the data age past the usual
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        }
+        return interval;
+    }
+
+    /**
+     * @return true if any of the next hours sees clearly more than its share of user activity.
+     */
+    static boolean isBusyAhead(float[] activity, int currentHour, int hours) {
+        float total = 0f;
+        for (float visits : activity) {
+            total += visits;
+        }
+        if (total == 0f) {
+            return false;
+        }
+
+        float busyThreshold = BUSY_HOUR_FACTOR * total / HOURS_PER_DAY;
+        for (int i = 0; i <= hours; i++) {
+            if (activity[(currentHour + i) % HOURS_PER_DAY] >= busyThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static float[] parseActivity(String stored) {
+        float[] activity = new float[HOURS_PER_DAY];
+        if (TextUtils.isEmpty(stored)) {
+            return activity;
+        }
+        String[] buckets = stored.split(",");
+        if (buckets.length != HOURS_PER_DAY) {
+            return activity;
+        }
+        try {
+            for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+                activity[hour] = Float.parseFloat(buckets[hour]);
+            }
+        } catch (NumberFormatException e) {
+            return new float[HOURS_PER_DAY];
+        }
+        return activity;
+    }
+
+    static String formatActivity(float[] activity) {
+        StringBuilder builder = new StringBuilder(HOURS_PER_DAY * 6);
+        for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+            if (hour > 0) {
+                builder.append(',');
+            }
+            builder.append(activity[hour]);
+        }
+        return builder.toString();
+    }
+}
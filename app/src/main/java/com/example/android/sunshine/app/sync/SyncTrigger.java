@@ -0,0 +1,227 @@
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns bursts of "sync now" requests into as few expedited syncs as possible.  Requests that
+ * arrive within COALESCE_WINDOW_MILLIS of each other share one sync.  While that sync runs, later
+ * requests are merged into a single follow-up sync that starts once the running one is done, so
+ * anything that changed in the meantime (a new location setting, say) is still picked up.
+ * <p/>
+ * Every request returns a {@link PendingSync} the caller can wait on.
+ */
+public class SyncTrigger {
+
+    public static final String LOG_TAG = SyncTrigger.class.getSimpleName();
+
+    static final long COALESCE_WINDOW_MILLIS = 2 * 1000;
+    // A sync the framework never ran (no network, say) stops blocking new ones after this long
+    static final long IN_FLIGHT_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    // Sync extra that ties a sync run back to the PendingSync that asked for it
+    static final String SYNC_EXTRAS_TRIGGER_ID = "trigger_id";
+
+    /**
+     * Handle on a requested sync.  All the requests merged into the same sync share one.
+     */
+    public static class PendingSync {
+        final long mId;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile int mLocationStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+
+        PendingSync(long id) {
+            mId = id;
+        }
+
+        /**
+         * Waits for the sync to finish.  Don't call this on the UI thread.
+         *
+         * @return true if the sync finished, false if the wait timed out.
+         */
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return mDone.await(timeout, unit);
+        }
+
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        /**
+         * @return the location status the sync ended with, or LOCATION_STATUS_UNKNOWN while it
+         * has not finished.
+         */
+        @SunshineSyncAdapter.LocationStatus
+        public int getLocationStatus() {
+            return mLocationStatus;
+        }
+
+        void complete(int locationStatus) {
+            mLocationStatus = locationStatus;
+            mDone.countDown();
+        }
+    }
+
+    private static final Object sLock = new Object();
+    private static long sNextId = 1;
+    // Waiting for the window to close, or for the sync in flight to finish
+    private static PendingSync sScheduled;
+    private static PendingSync sInFlight;
+    private static long sInFlightSince;
+    private static Context sContext;
+    private static Handler sHandler;
+
+    private static final Runnable sFireScheduled = new Runnable() {
+        @Override
+        public void run() {
+            fireScheduled();
+        }
+    };
+
+    private SyncTrigger() {
+    }
+
+    /**
+     * Asks for an expedited sync of the preferred location, merged with any other request that
+     * is already waiting.
+     */
+    public static PendingSync requestSync(Context context) {
+        return requestSync(context, Utility.getPreferredLocation(context));
+    }
+
+    /**
+     * Like {@link #requestSync(Context)}, for a preferred location the caller already knows.  A
+     * preference listener reacting to a new location must pass it in: the other listeners,
+     * including the one that updates Utility's view of the settings, may not have run yet.
+     */
+    public static PendingSync requestSync(Context context, String locationSetting) {
+        // While the server is failing, another expedited sync would only fail again.  The
+        // periodic sync tries again once the breaker closes.
+        if (SyncBackoff.isOpenFor(context, locationSetting)) {
+            Log.d(LOG_TAG, "Backing off, not syncing");
+            // Whoever reset the status to wait for this sync shouldn't wait forever; apply,
+            // since we may be on the UI thread
+            PreferenceManager.getDefaultSharedPreferences(context).edit()
+                    .putInt(context.getString(R.string.pref_location_status_key),
+                            SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN)
+                    .apply();
+            PendingSync skipped = new PendingSync(0);
+            skipped.complete(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+            return skipped;
+        }
+
+        synchronized (sLock) {
+            sContext = context.getApplicationContext();
+            if (sScheduled != null) {
+                Log.d(LOG_TAG, "Merged into pending sync " + sScheduled.mId);
+                return sScheduled;
+            }
+            sScheduled = new PendingSync(sNextId++);
+            if (!isInFlightLocked()) {
+                getHandlerLocked().postDelayed(sFireScheduled, COALESCE_WINDOW_MILLIS);
+            }
+            // Otherwise it goes out when the sync in flight finishes
+            return sScheduled;
+        }
+    }
+
+    /**
+     * Called by the sync adapter at the end of every sync, triggered here or not.
+     */
+    static void onSyncFinished(Context context, Bundle extras) {
+        long id = extras != null ? extras.getLong(SYNC_EXTRAS_TRIGGER_ID, 0) : 0;
+        if (id == 0) {
+            return;
+        }
+        int locationStatus = Utility.getLocationStatus(context);
+        synchronized (sLock) {
+            if (sInFlight == null || sInFlight.mId != id) {
+                // Already given up on, see IN_FLIGHT_TIMEOUT_MILLIS
+                return;
+            }
+            sInFlight.complete(locationStatus);
+            sInFlight = null;
+            if (sScheduled != null) {
+                // Everything that came in meanwhile has waited long enough
+                getHandlerLocked().post(sFireScheduled);
+            }
+        }
+    }
+
+    private static void fireScheduled() {
+        PendingSync pendingSync;
+        Context context;
+        synchronized (sLock) {
+            if (sScheduled == null || isInFlightLocked()) {
+                return;
+            }
+            pendingSync = sScheduled;
+            sScheduled = null;
+            sInFlight = pendingSync;
+            sInFlightSince = SystemClock.elapsedRealtime();
+            context = sContext;
+        }
+
+        Account account = SunshineSyncAdapter.getSyncAccount(context);
+        if (account == null) {
+            synchronized (sLock) {
+                sInFlight = null;
+            }
+            pendingSync.complete(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+            return;
+        }
+
+        Log.d(LOG_TAG, "Requesting sync " + pendingSync.mId);
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putLong(SYNC_EXTRAS_TRIGGER_ID, pendingSync.mId);
+        ContentResolver.requestSync(account, context.getString(R.string.content_authority), bundle);
+    }
+
+    private static boolean isInFlightLocked() {
+        if (sInFlight == null) {
+            return false;
+        }
+        if (SystemClock.elapsedRealtime() - sInFlightSince < IN_FLIGHT_TIMEOUT_MILLIS) {
+            return true;
+        }
+        Log.w(LOG_TAG, "Sync " + sInFlight.mId + " never finished, giving up on it");
+        sInFlight.complete(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        sInFlight = null;
+        return false;
+    }
+
+    private static Handler getHandlerLocked() {
+        if (sHandler == null) {
+            sHandler = new Handler(Looper.getMainLooper());
+        }
+        return sHandler;
+    }
+
+    /**
+     * Drops every pending and in-flight request without syncing.  For tests.
+     */
+    static void reset() {
+        synchronized (sLock) {
+            if (sHandler != null) {
+                sHandler.removeCallbacks(sFireScheduled);
+            }
+            sScheduled = null;
+            sInFlight = null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps track of how long its readers spend blocked on the underlying stream.  When a response is
+ * parsed as it streams in, this is what tells the download time apart from the parse time.
+ */
+class TimedInputStream extends FilterInputStream {
+
+    private long mReadNanos;
+
+    TimedInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @return the total time spent in read and skip so far, in nanoseconds.
+     */
+    long getReadNanos() {
+        return mReadNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read();
+        } finally {
+            mReadNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read(buffer, offset, count);
+        } finally {
+            mReadNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.skip(byteCount);
+        } finally {
+            mReadNanos += System.nanoTime() - start;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Where forecasts come from: which URL to ask for a location, and how to read the answer.  The
+ * sync adapter takes care of the HTTP request itself, conditional requests included, and of
+ * turning the decoded days into rows.  Besides the daily forecast, a source serves the short
+ * term forecast as points in time.
+ */
+interface WeatherSource {
+
+    interface Callbacks {
+        /**
+         * Called once, when the location of the forecast has been read.
+         *
+         * @return the location row id the days belong to.
+         */
+        long onCity(String cityName, double lat, double lon);
+
+        /**
+         * Called for every day of the forecast, in the order they appear in the response.
+         *
+         * @param dayIndex       position of the day in the forecast, 0 being today
+         * @param locationId     the id returned by {@link #onCity}
+         * @param weatherValues  the parsed columns, without location key or date
+         */
+        void onDay(int dayIndex, long locationId, ContentValues weatherValues);
+    }
+
+    interface HourlyCallbacks {
+        /**
+         * Called for every point of the hourly forecast, in the order they appear in the response.
+         *
+         * @param hourValues  the parsed columns of the hourly table, time included, without
+         *                    location key
+         */
+        void onHour(ContentValues hourValues);
+    }
+
+    /**
+     * @return the URL to download the daily forecast of the given location setting from.
+     */
+    URL getForecastUrl(String locationSetting) throws IOException;
+
+    /**
+     * Reads a forecast response, reporting the location and then the days to the callbacks.
+     *
+     * @return HttpURLConnection.HTTP_OK, or the error code the response carried, in which case
+     * no day is reported.
+     * @throws IOException   if the stream could not be read, or was empty
+     * @throws JSONException if the stream was read but does not look like a forecast
+     */
+    int decodeForecast(InputStream in, Callbacks callbacks) throws IOException, JSONException;
+
+    /**
+     * @return the URL to download the hourly forecast of the given location setting from.
+     */
+    URL getHourlyForecastUrl(String locationSetting) throws IOException;
+
+    /**
+     * Reads an hourly forecast response, reporting each point to the callbacks.
+     *
+     * @return HttpURLConnection.HTTP_OK, or the error code the response carried, in which case
+     * no point is reported.
+     * @throws IOException   if the stream could not be read, or was empty
+     * @throws JSONException if the stream was read but does not look like a forecast
+     */
+    int decodeHourlyForecast(InputStream in, HourlyCallbacks callbacks)
+            throws IOException, JSONException;
+}
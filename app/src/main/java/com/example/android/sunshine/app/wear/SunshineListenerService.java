@@ -3,6 +3,7 @@ package com.example.android.sunshine.app.wear;
 import android.util.Log;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.WearableListenerService;
@@ -18,6 +19,8 @@ public class SunshineListenerService extends WearableListenerService {
                 String path = dataEvent.getDataItem().getUri().getPath();
                 Log.d(LOG_TAG, path);
                 if (path.equals(WEATHER_PATH)) {
+                    // The watch face asks for the weather whenever it comes up
+                    SyncScheduler.recordUserActivity(this);
                     Log.d(LOG_TAG, "Syncing now");
                     SunshineSyncAdapter.syncImmediately(this);
                 } else {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+/**
+ * Which picture goes with an OpenWeatherMap condition code, for the phone app and the watch
+ * face both; each builds this file against its own resources, which have the same names.
+ * <p/>
+ * Codes are sorted into a few kinds of weather once, into a table indexed by the code, and the
+ * icons, artwork and art pack names are tables indexed by the kind.  Looking a code up is two
+ * array reads.
+ * <p/>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+final class WeatherConditions {
+
+    static final int UNKNOWN = 0;
+    static final int STORM = 1;
+    static final int LIGHT_RAIN = 2;
+    static final int RAIN = 3;
+    static final int SNOW = 4;
+    static final int FOG = 5;
+    // Drawn as a storm, but the Muzei image is its own
+    static final int TORNADO = 6;
+    static final int CLEAR = 7;
+    static final int LIGHT_CLOUDS = 8;
+    static final int CLOUDS = 9;
+    static final int KIND_COUNT = 10;
+
+    // Condition codes run from 200 to 962
+    static final int MAX_CODE = 999;
+
+    // The rest are indexed by kind
+
+    /**
+     * The names art packs use for each kind, substituted into the pack's url format.
+     */
+    static final String[] ART_NAMES = new String[]{
+            null, "storm", "light_rain", "rain", "snow", "fog", "storm", "clear", "light_clouds",
+            "clouds"
+    };
+
+    private static final int[] ICON_RESOURCES = new int[]{
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] ART_RESOURCES = new int[]{
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    private static final byte[] KINDS = new byte[MAX_CODE + 1];
+
+    static {
+        setKind(200, 232, STORM);
+        setKind(300, 321, LIGHT_RAIN);
+        setKind(500, 504, RAIN);
+        setKind(511, 511, SNOW);
+        setKind(520, 531, RAIN);
+        setKind(600, 622, SNOW);
+        setKind(701, 761, FOG);
+        setKind(781, 781, TORNADO);
+        setKind(800, 800, CLEAR);
+        setKind(801, 801, LIGHT_CLOUDS);
+        setKind(802, 804, CLOUDS);
+    }
+
+    private static void setKind(int firstCode, int lastCode, int kind) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            KINDS[code] = (byte) kind;
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @return the kind of weather of a condition code, UNKNOWN if it's not one we draw.
+     */
+    static int getKind(int weatherId) {
+        return weatherId >= 0 && weatherId <= MAX_CODE ? KINDS[weatherId] : UNKNOWN;
+    }
+
+    /**
+     * @return the small icon for a condition code, -1 if there is none.
+     */
+    static int getIconResource(int weatherId) {
+        return ICON_RESOURCES[getKind(weatherId)];
+    }
+
+    /**
+     * @return the large artwork for a condition code, -1 if there is none.
+     */
+    static int getArtResource(int weatherId) {
+        return ART_RESOURCES[getKind(weatherId)];
+    }
+}
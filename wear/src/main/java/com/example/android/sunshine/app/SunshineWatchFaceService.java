@@ -423,9 +423,10 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                         mTempLoText = String.valueOf(dataMap.getInt(LOW_KEY)) + GRAD_STRING;
                         int weatherId = dataMap.getInt(WEATHER_ID_KEY);
                         // Log.d(LOG_TAG, "weatherId=" + weatherId);
-                        if (weatherId != 0) {
-                            BitmapDrawable drawable = (BitmapDrawable) getResources().getDrawable(
-                                    Utility.getResourceForWeatherCondition(getApplicationContext(), weatherId));
+                        int iconId = Utility.getResourceForWeatherCondition(getApplicationContext(), weatherId);
+                        // Keep the last icon for conditions we have no artwork for
+                        if (iconId != 0) {
+                            BitmapDrawable drawable = (BitmapDrawable) getResources().getDrawable(iconId);
                             Bitmap bitmap = drawable.getBitmap();
                             mIcon = Bitmap.createScaledBitmap(bitmap, dp2px(mScaleSize), dp2px(mScaleSize), true);
                         }
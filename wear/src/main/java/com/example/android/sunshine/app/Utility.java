@@ -4,21 +4,12 @@ import android.content.Context;
 
 public class Utility {
 
+    /**
+     * @return the artwork for a condition code, 0 if there is none.  The codes are sorted the
+     * same way as on the phone, see WeatherConditions.
+     */
     public static int getResourceForWeatherCondition(Context context, int weatherId) {
-        int id = 0;
-
-        if (weatherId >= 200 && weatherId <= 232) {
-            id = R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            id = R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 521) {
-            id = R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 621) {
-            id = R.drawable.art_snow;
-        } else if (weatherId >= 800 && weatherId <= 821) {
-            id = R.drawable.art_clear;
-        }
-        
-        return id;
+        int id = WeatherConditions.getArtResource(weatherId);
+        return id != -1 ? id : 0;
     }
 }